@@ -0,0 +1,833 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Compact binary {@link RmiCodec}. Values are written with a one-byte tag followed by their
+ * contents:
+ * <ul>
+ * <li>primitive wrappers are written in binary form (integers as variable-length quantities),
+ * and strings in UTF-8;</li>
+ * <li>arrays are written as their type, length and elements (arrays of primitive types
+ * are written in bulk, without tags);</li>
+ * <li>the common {@code java.util} collections and maps are written as their class, size and
+ * elements;</li>
+ * <li>records, and serializable beans that have a no-argument constructor and do not customize
+ * their serialization, are written as their class and the values of their fields. The names of
+ * the fields are written once per class in each stream;</li>
+ * <li>references to {@link RmiRemote} objects are written as their id (and interfaces);</li>
+ * <li>any other serializable object is written with Java serialization.</li>
+ * </ul>
+ * Class names are written once per stream, and objects that are written more than once (including
+ * cyclic references) are written as a reference to their first occurrence.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+public final class CompactRmiCodec implements RmiCodec {
+
+  /** The id of this codec. */
+  public static final String ID = "compact";
+
+  /** Version of the encoding, which is written at the beginning of the stream. */
+  private static final int VERSION = 1;
+
+  private static final int NULL = 0;
+  private static final int TRUE = 1;
+  private static final int FALSE = 2;
+  private static final int BYTE = 3;
+  private static final int SHORT = 4;
+  private static final int CHAR = 5;
+  private static final int INT = 6;
+  private static final int LONG = 7;
+  private static final int FLOAT = 8;
+  private static final int DOUBLE = 9;
+  private static final int STRING = 10;
+  private static final int CLASS = 11;
+  private static final int ENUM = 12;
+  private static final int ARRAY = 13;
+  private static final int COLLECTION = 14;
+  private static final int MAP = 15;
+  private static final int BEAN = 16;
+  private static final int RECORD = 17;
+  private static final int SERIALIZED = 18;
+  private static final int REFERENCE = 19;
+  private static final int STUB = 20;
+  private static final int REMOTE = 21;
+  private static final int LISTENER = 22;
+
+  /** Collections and maps that are written as their elements. */
+  private static final Map<Class<?>, Supplier<Object>> CONTAINERS = new HashMap<>();
+
+  static {
+    CONTAINERS.put(ArrayList.class, ArrayList::new);
+    CONTAINERS.put(LinkedList.class, LinkedList::new);
+    CONTAINERS.put(ArrayDeque.class, ArrayDeque::new);
+    CONTAINERS.put(HashSet.class, HashSet::new);
+    CONTAINERS.put(LinkedHashSet.class, LinkedHashSet::new);
+    CONTAINERS.put(TreeSet.class, TreeSet::new);
+    CONTAINERS.put(HashMap.class, HashMap::new);
+    CONTAINERS.put(LinkedHashMap.class, LinkedHashMap::new);
+    CONTAINERS.put(TreeMap.class, TreeMap::new);
+  }
+
+  /** Methods that customize the serialization of a class. */
+  private static final Set<String> SERIALIZATION_METHODS = new HashSet<>(Arrays.asList(
+      "writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve"));
+
+  private static final Method IS_RECORD = getIsRecordMethod();
+
+  private static final ClassValue<Optional<Layout>> LAYOUTS =
+      new ClassValue<Optional<Layout>>() {
+        @Override
+        protected Optional<Layout> computeValue(Class<?> type) {
+          return Optional.ofNullable(Layout.of(type));
+        }
+      };
+
+  @Override
+  public String getId() {
+    return ID;
+  }
+
+  @Override
+  public void encode(Object value, OutputStream out, Context context) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeByte(VERSION);
+    new Writer(data, context).writeValue(value);
+    data.flush();
+  }
+
+  @Override
+  public Object decode(InputStream in, Context context)
+      throws IOException, ClassNotFoundException {
+    DataInputStream data = new DataInputStream(in);
+    int version = data.readUnsignedByte();
+    if (version != VERSION) {
+      throw new StreamCorruptedException("Unsupported version " + version);
+    }
+    return new Reader(data, context).readValue();
+  }
+
+  private static Method getIsRecordMethod() {
+    try {
+      return Class.class.getMethod("isRecord");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static boolean isRecord(Class<?> type) {
+    try {
+      return IS_RECORD != null && (Boolean) IS_RECORD.invoke(type);
+    } catch (ReflectiveOperationException e) {
+      return false;
+    }
+  }
+
+  /** Returns a one-character code that identifies the type of a field. */
+  private static char typeCode(Class<?> type) {
+    if (type == boolean.class) {
+      return 'Z';
+    } else if (type == byte.class) {
+      return 'B';
+    } else if (type == short.class) {
+      return 'S';
+    } else if (type == char.class) {
+      return 'C';
+    } else if (type == int.class) {
+      return 'I';
+    } else if (type == long.class) {
+      return 'J';
+    } else if (type == float.class) {
+      return 'F';
+    } else if (type == double.class) {
+      return 'D';
+    } else {
+      return 'L';
+    }
+  }
+
+  /** The fields of a record or bean, and the constructor that creates its instances. */
+  private static final class Layout {
+
+    final Field[] fields;
+    final Constructor<?> constructor;
+    final boolean record;
+
+    private Layout(Field[] fields, Constructor<?> constructor, boolean record) {
+      this.fields = fields;
+      this.constructor = constructor;
+      this.record = record;
+    }
+
+    /** Returns the layout of the given type, or {@code null} if the type is not supported. */
+    static Layout of(Class<?> type) {
+      if (!Serializable.class.isAssignableFrom(type)
+          || Externalizable.class.isAssignableFrom(type)
+          || type.isInterface() || type.isArray() || type.isEnum()
+          || Modifier.isAbstract(type.getModifiers()) || Proxy.isProxyClass(type)
+          || type.getName().startsWith("java.") || type.getName().startsWith("javax.")) {
+        return null;
+      }
+
+      boolean record = isRecord(type);
+      List<Field> fields = new ArrayList<>();
+      Set<String> names = new HashSet<>();
+      for (Class<?> c = type; c != null && Serializable.class.isAssignableFrom(c);
+          c = c.getSuperclass()) {
+        for (Method method : c.getDeclaredMethods()) {
+          if (SERIALIZATION_METHODS.contains(method.getName())) {
+            return null;
+          }
+        }
+        for (Field field : c.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (field.getName().equals("serialPersistentFields") && Modifier.isStatic(modifiers)) {
+            return null;
+          }
+          if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+            continue;
+          }
+          if (!names.add(field.getName())) {
+            // hidden fields are not supported
+            return null;
+          }
+          fields.add(field);
+        }
+        if (record) {
+          break;
+        }
+      }
+
+      try {
+        Constructor<?> constructor = record
+            ? type.getDeclaredConstructor(
+                fields.stream().map(Field::getType).toArray(Class<?>[]::new))
+            : type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        fields.forEach(field -> field.setAccessible(true));
+        return new Layout(fields.toArray(new Field[0]), constructor, record);
+      } catch (NoSuchMethodException | RuntimeException e) {
+        return null;
+      }
+    }
+
+    /** Returns the index of the field with the given name, or {@code -1} if there is none. */
+    int indexOf(String name) {
+      for (int i = 0; i < fields.length; i++) {
+        if (fields[i].getName().equals(name)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private static final class Writer {
+
+    private final DataOutputStream out;
+    private final Context context;
+    private final Map<Class<?>, Integer> classes = new HashMap<>();
+    private final Set<Class<?>> schemas = new HashSet<>();
+    private final Map<Object, Integer> handles = new IdentityHashMap<>();
+
+    Writer(DataOutputStream out, Context context) {
+      this.out = out;
+      this.context = context;
+    }
+
+    void writeValue(Object obj) throws IOException {
+      if (obj != null) {
+        obj = context.replaceObject(obj);
+      }
+      if (obj == null) {
+        out.writeByte(NULL);
+        return;
+      }
+
+      Class<?> type = obj.getClass();
+      if (type == Boolean.class) {
+        out.writeByte((Boolean) obj ? TRUE : FALSE);
+      } else if (type == Byte.class) {
+        out.writeByte(BYTE);
+        out.writeByte((Byte) obj);
+      } else if (type == Short.class) {
+        out.writeByte(SHORT);
+        out.writeShort((Short) obj);
+      } else if (type == Character.class) {
+        out.writeByte(CHAR);
+        out.writeChar((Character) obj);
+      } else if (type == Integer.class) {
+        out.writeByte(INT);
+        writeSigned((Integer) obj);
+      } else if (type == Long.class) {
+        out.writeByte(LONG);
+        writeSigned((Long) obj);
+      } else if (type == Float.class) {
+        out.writeByte(FLOAT);
+        out.writeFloat((Float) obj);
+      } else if (type == Double.class) {
+        out.writeByte(DOUBLE);
+        out.writeDouble((Double) obj);
+      } else if (type == String.class) {
+        out.writeByte(STRING);
+        writeString((String) obj);
+      } else if (obj instanceof Class) {
+        out.writeByte(CLASS);
+        writeClass((Class<?>) obj);
+      } else if (obj instanceof Enum) {
+        out.writeByte(ENUM);
+        writeClass(((Enum<?>) obj).getDeclaringClass());
+        writeString(((Enum<?>) obj).name());
+      } else if (type == RmiStubReplacement.class) {
+        out.writeByte(STUB);
+        writeString(((RmiStubReplacement) obj).getInstanceId());
+      } else if (type == RmiRemoteReplacement.class) {
+        out.writeByte(REMOTE);
+        writeClasses(((RmiRemoteReplacement) obj).getInterfaces());
+        writeString(((RmiRemoteReplacement) obj).getInstanceId());
+      } else if (type == RmiListenerReplacement.class) {
+        out.writeByte(LISTENER);
+        writeClasses(((RmiListenerReplacement) obj).getInterfaces());
+        writeString(((RmiListenerReplacement) obj).getListenerId());
+      } else {
+        writeObject(obj, type);
+      }
+    }
+
+    /** Writes an object that has identity, or a reference to its first occurrence. */
+    private void writeObject(Object obj, Class<?> type) throws IOException {
+      Integer handle = handles.get(obj);
+      if (handle != null) {
+        out.writeByte(REFERENCE);
+        writeUnsigned(handle);
+        return;
+      }
+      handles.put(obj, handles.size());
+
+      Layout layout;
+      if (type.isArray()) {
+        out.writeByte(ARRAY);
+        writeClass(type);
+        writeArray(obj, type.getComponentType());
+      } else if (CONTAINERS.containsKey(type) && !hasComparator(obj)) {
+        if (obj instanceof Map) {
+          Map<?, ?> map = (Map<?, ?>) obj;
+          out.writeByte(MAP);
+          writeClass(type);
+          writeUnsigned(map.size());
+          for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeValue(entry.getKey());
+            writeValue(entry.getValue());
+          }
+        } else {
+          Collection<?> collection = (Collection<?>) obj;
+          out.writeByte(COLLECTION);
+          writeClass(type);
+          writeUnsigned(collection.size());
+          for (Object element : collection) {
+            writeValue(element);
+          }
+        }
+      } else if ((layout = LAYOUTS.get(type).orElse(null)) != null) {
+        out.writeByte(layout.record ? RECORD : BEAN);
+        writeClass(type);
+        if (schemas.add(type)) {
+          writeUnsigned(layout.fields.length);
+          for (Field field : layout.fields) {
+            writeString(field.getName());
+            out.writeByte(typeCode(field.getType()));
+          }
+        }
+        for (Field field : layout.fields) {
+          writeField(obj, field);
+        }
+      } else if (obj instanceof Serializable) {
+        out.writeByte(SERIALIZED);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        RmiCodecs.JAVA.encode(obj, baos, context);
+        writeUnsigned(baos.size());
+        baos.writeTo(out);
+      } else {
+        throw new NotSerializableException(type.getName());
+      }
+    }
+
+    private void writeField(Object obj, Field field) throws IOException {
+      Object value;
+      try {
+        value = field.get(obj);
+      } catch (ReflectiveOperationException e) {
+        throw new InvalidClassException(obj.getClass().getName(), e.toString());
+      }
+      writePrimitiveOrValue(field.getType(), value);
+    }
+
+    private void writePrimitiveOrValue(Class<?> type, Object value) throws IOException {
+      if (!type.isPrimitive()) {
+        writeValue(value);
+      } else if (type == boolean.class) {
+        out.writeBoolean((Boolean) value);
+      } else if (type == byte.class) {
+        out.writeByte((Byte) value);
+      } else if (type == short.class) {
+        out.writeShort((Short) value);
+      } else if (type == char.class) {
+        out.writeChar((Character) value);
+      } else if (type == int.class) {
+        writeSigned((Integer) value);
+      } else if (type == long.class) {
+        writeSigned((Long) value);
+      } else if (type == float.class) {
+        out.writeFloat((Float) value);
+      } else {
+        out.writeDouble((Double) value);
+      }
+    }
+
+    private void writeArray(Object array, Class<?> componentType) throws IOException {
+      int length = Array.getLength(array);
+      writeUnsigned(length);
+      if (componentType == byte.class) {
+        out.write((byte[]) array);
+      } else if (componentType == int.class) {
+        for (int value : (int[]) array) {
+          writeSigned(value);
+        }
+      } else if (componentType == long.class) {
+        for (long value : (long[]) array) {
+          writeSigned(value);
+        }
+      } else if (componentType == double.class) {
+        for (double value : (double[]) array) {
+          out.writeDouble(value);
+        }
+      } else if (componentType.isPrimitive()) {
+        for (int i = 0; i < length; i++) {
+          writePrimitiveOrValue(componentType, Array.get(array, i));
+        }
+      } else {
+        for (Object element : (Object[]) array) {
+          writeValue(element);
+        }
+      }
+    }
+
+    private void writeClasses(Class<?>[] types) throws IOException {
+      writeUnsigned(types.length);
+      for (Class<?> type : types) {
+        writeClass(type);
+      }
+    }
+
+    /** Writes the index of a class, followed by its name if it was not written before. */
+    private void writeClass(Class<?> type) throws IOException {
+      Integer index = classes.get(type);
+      if (index != null) {
+        writeUnsigned(index);
+      } else {
+        index = classes.size();
+        classes.put(type, index);
+        writeUnsigned(index);
+        writeString(type.getName());
+      }
+    }
+
+    private void writeString(String s) throws IOException {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeUnsigned(bytes.length);
+      out.write(bytes);
+    }
+
+    private void writeSigned(long value) throws IOException {
+      writeUnsigned((value << 1) ^ (value >> 63));
+    }
+
+    private void writeUnsigned(long value) throws IOException {
+      while ((value & ~0x7FL) != 0) {
+        out.writeByte((int) (value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte((int) value);
+    }
+
+    private static boolean hasComparator(Object obj) {
+      return obj instanceof SortedSet && ((SortedSet<?>) obj).comparator() != null
+          || obj instanceof SortedMap && ((SortedMap<?, ?>) obj).comparator() != null;
+    }
+  }
+
+  private static final class Reader {
+
+    private final DataInputStream in;
+    private final Context context;
+    private final List<Class<?>> classes = new ArrayList<>();
+    /** The indexes (in the layout of each class) of the fields that were written. */
+    private final Map<Class<?>, int[]> schemas = new HashMap<>();
+    private final List<Object> handles = new ArrayList<>();
+    /** The depth of the value that is being read. */
+    private int depth;
+
+    Reader(DataInputStream in, Context context) {
+      this.in = in;
+      this.context = context;
+    }
+
+    Object readValue() throws IOException, ClassNotFoundException {
+      RmiInputLimits.enforce(null, 0, ++depth, 0, 0);
+      try {
+        return readValue(in.readUnsignedByte());
+      } finally {
+        depth--;
+      }
+    }
+
+    private Object readValue(int tag) throws IOException, ClassNotFoundException {
+      switch (tag) {
+        case NULL:
+          return null;
+        case TRUE:
+          return context.resolveObject(Boolean.TRUE);
+        case FALSE:
+          return context.resolveObject(Boolean.FALSE);
+        case BYTE:
+          return context.resolveObject(in.readByte());
+        case SHORT:
+          return context.resolveObject(in.readShort());
+        case CHAR:
+          return context.resolveObject(in.readChar());
+        case INT:
+          return context.resolveObject((int) readSigned());
+        case LONG:
+          return context.resolveObject(readSigned());
+        case FLOAT:
+          return context.resolveObject(in.readFloat());
+        case DOUBLE:
+          return context.resolveObject(in.readDouble());
+        case STRING:
+          return context.resolveObject(readString());
+        case CLASS:
+          return readClass();
+        case ENUM:
+          return context.resolveObject(readEnum(readClass(), readString()));
+        case STUB:
+          return context.resolveObject(new RmiStubReplacement(readString()));
+        case REMOTE:
+          return context.resolveObject(new RmiRemoteReplacement(readClasses(), readString()));
+        case LISTENER:
+          return context.resolveObject(new RmiListenerReplacement(readClasses(), readString()));
+        case REFERENCE:
+          int handle = readLength();
+          if (handle >= handles.size()) {
+            throw new StreamCorruptedException("Invalid handle " + handle);
+          }
+          return handles.get(handle);
+        case ARRAY:
+          return readArray();
+        case COLLECTION:
+        case MAP:
+          return readContainer(tag == MAP);
+        case BEAN:
+        case RECORD:
+          return readBean(tag == RECORD);
+        case SERIALIZED:
+          return readSerialized();
+        default:
+          throw new StreamCorruptedException("Invalid tag " + tag);
+      }
+    }
+
+    /** Reserves a handle for an object that is being read. */
+    private int reserveHandle() throws IOException {
+      RmiInputLimits.enforce(null, 0, 0, handles.size() + 1, 0);
+      handles.add(null);
+      return handles.size() - 1;
+    }
+
+    private Object resolve(int handle, Object obj) throws IOException {
+      obj = context.resolveObject(obj);
+      handles.set(handle, obj);
+      return obj;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readEnum(Class<?> type, String name) throws IOException {
+      if (!type.isEnum()) {
+        throw new InvalidClassException(type.getName(), "not an enum");
+      }
+      try {
+        return Enum.valueOf((Class) type, name);
+      } catch (IllegalArgumentException e) {
+        throw new InvalidClassException(type.getName(), "no enum constant " + name);
+      }
+    }
+
+    private Object readArray() throws IOException, ClassNotFoundException {
+      Class<?> arrayType = readClass();
+      if (!arrayType.isArray()) {
+        throw new InvalidClassException(arrayType.getName(), "not an array");
+      }
+      Class<?> componentType = arrayType.getComponentType();
+      int length = readArrayLength();
+      Object array = Array.newInstance(componentType, length);
+      int handle = reserveHandle();
+      handles.set(handle, array);
+
+      if (componentType == byte.class) {
+        in.readFully((byte[]) array);
+      } else if (componentType == int.class) {
+        int[] values = (int[]) array;
+        for (int i = 0; i < length; i++) {
+          values[i] = (int) readSigned();
+        }
+      } else if (componentType == long.class) {
+        long[] values = (long[]) array;
+        for (int i = 0; i < length; i++) {
+          values[i] = readSigned();
+        }
+      } else if (componentType == double.class) {
+        double[] values = (double[]) array;
+        for (int i = 0; i < length; i++) {
+          values[i] = in.readDouble();
+        }
+      } else if (componentType.isPrimitive()) {
+        for (int i = 0; i < length; i++) {
+          Array.set(array, i, readPrimitiveOrValue(componentType));
+        }
+      } else {
+        Object[] values = (Object[]) array;
+        for (int i = 0; i < length; i++) {
+          values[i] = readValue();
+        }
+      }
+      return resolve(handle, array);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object readContainer(boolean map) throws IOException, ClassNotFoundException {
+      Class<?> type = readClass();
+      Supplier<Object> factory = CONTAINERS.get(type);
+      if (factory == null || Map.class.isAssignableFrom(type) != map) {
+        throw new InvalidClassException(type.getName(), "unsupported container");
+      }
+
+      int size = readLength();
+      Object container = factory.get();
+      int handle = reserveHandle();
+      handles.set(handle, container);
+      for (int i = 0; i < size; i++) {
+        if (map) {
+          Object key = readValue();
+          ((Map<Object, Object>) container).put(key, readValue());
+        } else {
+          ((Collection<Object>) container).add(readValue());
+        }
+      }
+      return resolve(handle, container);
+    }
+
+    private Object readBean(boolean record) throws IOException, ClassNotFoundException {
+      Class<?> type = readClass();
+      Layout layout = LAYOUTS.get(type).orElse(null);
+      if (layout == null || layout.record != record) {
+        throw new InvalidClassException(type.getName(), "unsupported class");
+      }
+
+      int[] schema = schemas.get(type);
+      if (schema == null) {
+        schema = new int[readArrayLength()];
+        for (int i = 0; i < schema.length; i++) {
+          String name = readString();
+          char code = (char) in.readUnsignedByte();
+          schema[i] = layout.indexOf(name);
+          if (schema[i] < 0 || typeCode(layout.fields[schema[i]].getType()) != code) {
+            throw new InvalidClassException(type.getName(), "incompatible field " + name);
+          }
+        }
+        schemas.put(type, schema);
+      }
+
+      int handle = reserveHandle();
+      try {
+        if (record) {
+          Object[] values = new Object[layout.fields.length];
+          for (int i = 0; i < values.length; i++) {
+            Class<?> fieldType = layout.fields[i].getType();
+            if (fieldType.isPrimitive()) {
+              values[i] = Array.get(Array.newInstance(fieldType, 1), 0);
+            }
+          }
+          for (int index : schema) {
+            values[index] = readPrimitiveOrValue(layout.fields[index].getType());
+          }
+          return resolve(handle, layout.constructor.newInstance(values));
+        } else {
+          Object bean = layout.constructor.newInstance();
+          handles.set(handle, bean);
+          for (int index : schema) {
+            Field field = layout.fields[index];
+            field.set(bean, readPrimitiveOrValue(field.getType()));
+          }
+          return resolve(handle, bean);
+        }
+      } catch (ReflectiveOperationException e) {
+        throw new InvalidClassException(type.getName(), e.toString());
+      }
+    }
+
+    private Object readSerialized() throws IOException, ClassNotFoundException {
+      byte[] data = new byte[readByteLength()];
+      in.readFully(data);
+      int handle = reserveHandle();
+      Object obj = RmiCodecs.JAVA.decode(new ByteArrayInputStream(data), context);
+      handles.set(handle, obj);
+      return obj;
+    }
+
+    private Object readPrimitiveOrValue(Class<?> type) throws IOException, ClassNotFoundException {
+      if (!type.isPrimitive()) {
+        return readValue();
+      } else if (type == boolean.class) {
+        return in.readBoolean();
+      } else if (type == byte.class) {
+        return in.readByte();
+      } else if (type == short.class) {
+        return in.readShort();
+      } else if (type == char.class) {
+        return in.readChar();
+      } else if (type == int.class) {
+        return (int) readSigned();
+      } else if (type == long.class) {
+        return readSigned();
+      } else if (type == float.class) {
+        return in.readFloat();
+      } else {
+        return in.readDouble();
+      }
+    }
+
+    private Class<?>[] readClasses() throws IOException, ClassNotFoundException {
+      Class<?>[] types = new Class<?>[readArrayLength()];
+      for (int i = 0; i < types.length; i++) {
+        types[i] = readClass();
+      }
+      return types;
+    }
+
+    private Class<?> readClass() throws IOException, ClassNotFoundException {
+      int index = readLength();
+      if (index < classes.size()) {
+        return classes.get(index);
+      } else if (index == classes.size()) {
+        Class<?> type = context.resolveClass(readString());
+        RmiInputLimits.enforce(type, 0, 0, 0, 0);
+        classes.add(type);
+        return type;
+      } else {
+        throw new StreamCorruptedException("Invalid class index " + index);
+      }
+    }
+
+    private String readString() throws IOException {
+      byte[] bytes = new byte[readByteLength()];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Reads the length of an array, which is checked before the array is allocated. */
+    private int readArrayLength() throws IOException {
+      int length = readLength();
+      RmiInputLimits.enforce(null, length, 0, 0, 0);
+      return length;
+    }
+
+    /** Reads the length of a byte sequence, which is checked before it's allocated. */
+    private int readByteLength() throws IOException {
+      int length = readLength();
+      RmiInputLimits.enforce(null, 0, 0, 0, length);
+      return length;
+    }
+
+    private int readLength() throws IOException {
+      long value = readUnsigned();
+      if (value > Integer.MAX_VALUE) {
+        throw new StreamCorruptedException("Invalid length " + value);
+      }
+      return (int) value;
+    }
+
+    private long readSigned() throws IOException {
+      long value = readUnsigned();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readUnsigned() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = in.readUnsignedByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new StreamCorruptedException("Malformed variable-length quantity");
+    }
+  }
+
+}
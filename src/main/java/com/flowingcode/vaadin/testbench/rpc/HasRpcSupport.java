@@ -19,42 +19,36 @@
  */
 package com.flowingcode.vaadin.testbench.rpc;
 
-import com.vaadin.flow.component.ClientCallable;
 import com.vaadin.testbench.HasDriver;
-import elemental.json.Json;
-import elemental.json.JsonArray;
-import elemental.json.JsonObject;
-import elemental.json.JsonValue;
-import elemental.json.impl.JsonUtil;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Base64;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import org.apache.commons.lang3.ClassUtils;
-import org.openqa.selenium.JavascriptExecutor;
-import org.openqa.selenium.NoSuchWindowException;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebDriver.Timeouts;
-import org.openqa.selenium.support.ui.ExpectedConditions;
-import org.openqa.selenium.support.ui.WebDriverWait;
 
 /**
  * Provides support for Remote Procedure Calls (RPC) using TestBench.
@@ -95,7 +89,115 @@ public interface HasRpcSupport extends HasDriver {
    * Create a TestBench proxy that invokes methods from the interface through a client call on a side channel.
    */
   default <T> T createCallableProxy(Class<T> intf, String url) {
-    return HasRpcSupport$companion.createCallableProxy(this, intf, url);
+    return HasRpcSupport$companion.createCallableProxy(this, intf, url, SideChannelMode.WINDOW,
+        null);
+  }
+
+  /**
+   * Create a TestBench proxy that invokes methods from the interface through a client call on a
+   * side channel, which is opened as specified by {@code mode}.
+   */
+  default <T> T createCallableProxy(Class<T> intf, String url, SideChannelMode mode) {
+    Objects.requireNonNull(mode);
+    if (mode == SideChannelMode.SESSION) {
+      throw new IllegalArgumentException("SESSION side channels require a driver factory");
+    }
+    if (mode == SideChannelMode.DIRECT) {
+      throw new IllegalArgumentException(
+          "DIRECT proxies are created with createDirectCallableProxy");
+    }
+    return HasRpcSupport$companion.createCallableProxy(this, intf, url, mode, null);
+  }
+
+  /**
+   * Create a TestBench proxy that invokes methods from the interface through a client call on a
+   * side channel, which is opened in a secondary WebDriver session (see
+   * {@link SideChannelMode#SESSION}). The cookies of the main driver are copied into the secondary
+   * session before it navigates to {@code url}.
+   *
+   * @param driverFactory a supplier that creates the secondary WebDriver session
+   */
+  default <T> T createCallableProxy(Class<T> intf, String url,
+      Supplier<? extends WebDriver> driverFactory) {
+    Objects.requireNonNull(driverFactory);
+    return HasRpcSupport$companion.createCallableProxy(this, intf, url, SideChannelMode.SESSION,
+        driverFactory);
+  }
+
+  /**
+   * Create a TestBench proxy that invokes methods from the interface directly on the server,
+   * without going through WebDriver and the browser (see {@link SideChannelMode#DIRECT}). The
+   * interface must extend {@link RmiCallable}, and {@link RmiDirectEndpoint} must be registered in
+   * the application under test.
+   * <p>
+   * The calls are dispatched to the view of the UI that is loaded in the main window when the first
+   * call is made (or when the main window is reloaded), and they use the HTTP session of the
+   * browser.
+   */
+  default <T> T createDirectCallableProxy(Class<T> intf) {
+    return HasRpcSupport$companion.createDirectCallableProxy(this, intf);
+  }
+
+  /**
+   * Create a TestBench proxy that invokes methods from the interface through an asynchronous client
+   * call. The methods of the interface must return {@code CompletableFuture<R>}, where {@code R}
+   * is a supported return type (or {@code Void}).
+   * <p>
+   * Calls return without waiting for the server to respond. The calls are dispatched in order by a
+   * background thread, which completes the returned futures as soon as the results arrive. Calls
+   * that are made while a previous one is in progress are dispatched together in a single round
+   * trip. The futures can be awaited, polled, or combined (e.g. with {@code allOf}).
+   * <p>
+   * Since the calls use the driver from another thread, the driver is locked during each call.
+   * Tests that use the driver directly while asynchronous calls are pending must synchronize on
+   * the driver, or await the futures first.
+   */
+  default <T> T createAsyncCallableProxy(Class<T> intf) {
+    return HasRpcSupport$companion.createAsyncCallableProxy(this, intf);
+  }
+
+  /**
+   * Dispatches the calls made on callable proxies in a single round trip. While {@code calls}
+   * runs, methods invoked on proxies created by this instance are recorded instead of being sent
+   * to the browser, and they return a default value ({@code null}, zero or {@code false}). The
+   * recorded calls are then fired in order, and their results are collected when all of them have
+   * completed.
+   *
+   * @param calls a runnable that invokes methods on callable proxies
+   * @return the results of the recorded calls, in the order they were made
+   * @throws RpcException if any of the recorded calls failed (the failures of other calls are
+   *         added as suppressed exceptions)
+   */
+  default List<Object> batch(Runnable calls) {
+    return RpcBatch.execute(this, calls);
+  }
+
+  /**
+   * Unexports a test-side listener that was passed to a remote method (see
+   * {@link RmiEventSupport}). The events of the listener that are drained afterwards are
+   * discarded. If the listener is passed again to a remote method, it's exported again with a new
+   * identity.
+   */
+  default void unexportListener(RmiRemote listener) {
+    RmiListenerReplacement.unexport(this, listener);
+  }
+
+  /**
+   * Unexports all the test-side listeners that were passed to remote methods by this instance.
+   * Exported listeners are held until they are unexported, and they usually refer to the test
+   * instance, so tests that use listeners should call this method when they end (e.g. in an
+   * {@code @After} method).
+   */
+  default void unexportListeners() {
+    RmiListenerReplacement.unexportAll(this);
+  }
+
+  /**
+   * Closes all the side channels that were opened by proxies created with this driver. The side
+   * channels are opened again if there is another call on a side channel.
+   */
+  default void closeSideChannels() {
+    RpcSideChannel.closeAll(getDriver());
   }
 
   @Deprecated
@@ -125,15 +227,49 @@ class HasRpcSupport$companion {
   }
 
   static <T> T createCallableProxy(HasRpcSupport rpc, Class<T> intf) {
-    return createCallableProxy(rpc, intf, null);
+    return createCallableProxy(rpc, intf, null, null, null);
   }
 
-  static <T> T createCallableProxy(HasRpcSupport rpc, Class<T> intf, String sideChannelUrl) {
-    return intf.cast(createCallableProxy(rpc, new Class<?>[] {intf}, null, sideChannelUrl));
+  static <T> T createCallableProxy(HasRpcSupport rpc, Class<T> intf, String sideChannelUrl,
+      SideChannelMode sideChannelMode, Supplier<? extends WebDriver> driverFactory) {
+    RpcSideChannel.Lease sideChannel = null;
+    if (sideChannelUrl != null) {
+      sideChannel =
+          new RpcSideChannel.Lease(rpc, sideChannelUrl, sideChannelMode, driverFactory);
+      sideChannel.open();
+    }
+    return intf.cast(createCallableProxy(rpc, new Class<?>[] {intf}, null, sideChannel, false));
   }
 
+  static <T> T createDirectCallableProxy(HasRpcSupport rpc, Class<T> intf) {
+    if (!RmiCallable.class.isAssignableFrom(intf)) {
+      throw new IllegalArgumentException(intf.getName() + " does not extend RmiCallable");
+    }
+    RpcSideChannel.Lease sideChannel =
+        new RpcSideChannel.Lease(rpc, null, SideChannelMode.DIRECT, null);
+    return intf.cast(createCallableProxy(rpc, new Class<?>[] {intf}, null, sideChannel, false));
+  }
+
+  static <T> T createAsyncCallableProxy(HasRpcSupport rpc, Class<T> intf) {
+    return intf.cast(createCallableProxy(rpc, new Class<?>[] {intf}, null, null, true));
+  }
+
+  /**
+   * Create a proxy for a remote object. The proxy uses the codec declared by its interfaces, or
+   * the given codec if none is declared.
+   */
   static Object createCallableProxy(HasRpcSupport rpc, Class<?> interfaces[], String instanceId,
-      String sideChannelUrl) {
+      RpcSideChannel.Lease sideChannel, RmiCodec codec) {
+    return createCallableProxy(rpc, interfaces, instanceId, sideChannel, false, codec);
+  }
+
+  private static Object createCallableProxy(HasRpcSupport rpc, Class<?> interfaces[],
+      String instanceId, RpcSideChannel.Lease sideChannel, boolean async) {
+    return createCallableProxy(rpc, interfaces, instanceId, sideChannel, async, RmiCodecs.JAVA);
+  }
+
+  private static Object createCallableProxy(HasRpcSupport rpc, Class<?> interfaces[],
+      String instanceId, RpcSideChannel.Lease sideChannel, boolean async, RmiCodec codec) {
     final boolean rmiSupported = isRmiSupported(interfaces, instanceId);
 
     for (Class<?> intf : interfaces) {
@@ -143,16 +279,20 @@ class HasRpcSupport$companion {
 
       for (Method method : intf.getMethods()) {
         if (!Modifier.isStatic(method.getModifiers())) {
-          TypeConversion.checkMethod(method, rmiSupported);
+          TypeConversion.checkMethod(method, rmiSupported, async);
         }
       }
     }
 
     InvocationHandler invocationHandler;
     if (rmiSupported) {
-      invocationHandler = new HasRpcSupport$RmiInvocationHandler(rpc, interfaces, instanceId, sideChannelUrl);
+      RmiCodec declaredCodec = Stream.of(interfaces).map(RmiCodecs::forType)
+          .filter(Objects::nonNull).findFirst().orElse(codec);
+      invocationHandler = new HasRpcSupport$RmiInvocationHandler(rpc, interfaces, instanceId,
+          sideChannel, declaredCodec);
     } else {
-      invocationHandler = new HasRpcSupport$SimpleInvocationHandler(rpc, sideChannelUrl);
+      invocationHandler =
+          new HasRpcSupport$SimpleInvocationHandler(rpc, sideChannel);
     }
 
     return Proxy.newProxyInstance(interfaces[0].getClassLoader(), interfaces, invocationHandler);
@@ -161,281 +301,301 @@ class HasRpcSupport$companion {
 }
 
 
-/** Representation of a RPC call failure exception. */
-@SuppressWarnings("serial")
-class RpcCallException extends Exception {
-  public RpcCallException(String message) {
-    super(message);
-  }
-  public RpcCallException(String message, Throwable cause) {
-    super(message, cause);
-  }
-}
+final class HasRpcSupport$SimpleInvocationHandler extends RpcInvocationHandler {
 
+  public HasRpcSupport$SimpleInvocationHandler(HasRpcSupport rpc,
+      RpcSideChannel.Lease sideChannel) {
+    super(rpc, sideChannel);
+  }
 
-@RequiredArgsConstructor
-abstract class HasRpcSupport$InvocationHandler implements InvocationHandler {
-
-  protected final HasRpcSupport rpc;
-  protected final String sideChannelUrl;
+  @Override
+  ClientCall marshal(RpcMethodPlan plan, Object[] args) {
+    return plan.marshal(plan.method.getName(), args);
+  }
 
-  /**
-   * Call a {@link ClientCallable} defined on the integration view.
-   *
-   * @param callable the client callable name
-   * @param arguments arguments to be passed to the callable
-   * @throws TimeoutException if the callable times out (see
-   *         {@link HasRpcSupport#setScriptTimeout(long)})
-   * @throws RuntimeException if the callable fails.
-   */
-  Object call(String callable, Object... arguments)
-      throws RpcCallException {
-    arguments = Optional.ofNullable(arguments).orElse(new Object[0]);
-    for (int i = 0; i < arguments.length; i++) {
-      if (arguments[i] instanceof Enum) {
-        arguments[i] = ((Enum<?>) arguments[i]).name();
-      } else if (arguments[i] instanceof JsonValue) {
-        arguments[i] = TypeConversion.fromJsonValue((JsonValue) arguments[i]);
-      } else if (arguments[i] instanceof Enum[]) {
-        arguments[i] = Stream.of((Enum[]) arguments[i])
-            .map(Enum::name)
-            .collect(Collectors.toList());
-      } else if (arguments[i] instanceof JsonValue[]) {
-        arguments[i] = Stream.of((JsonValue[])arguments[i])
-            .map(TypeConversion::fromJsonValue)
-            .collect(Collectors.toList());
-      }
+  @Override
+  Object convertResult(Object result, Type resultType, Class<?> returnType)
+      throws IOException, ClassCastException {
+    if (returnType == JsonArrayList.class) {
+      return TypeConversion.castList((List<?>) result, resultType);
     }
+    if (returnType == Void.TYPE) {
+      return null;
+    }
+    return TypeConversion.cast(result, returnType);
+  }
 
-    StringBuilder script = new StringBuilder();
+}
 
-    Object callArguments[] = arguments.clone();
+class HasRpcSupport$RmiInvocationHandler extends RpcInvocationHandler {
 
-    List<Boolean> raw = new ArrayList<>(arguments.length);
-    for (int i = 0; i < arguments.length; i++) {
-      if (arguments[i] instanceof JsonObject) {
-        raw.add(Boolean.FALSE);
-        callArguments[i] = JsonUtil.stringify(((JsonObject) arguments[i]));
-      } else {
-        raw.add(Boolean.TRUE);
-      }
-    }
+  private final Class<?>[] interfaces;
+  private final String instanceId;
 
-    // view is the (first) children of <body> that has a $server
-    script.append("var callback = arguments[3];");
-    script.append("var view = [].slice.call(document.body.children)"); // V14
-    script.append("   .concat([].slice.call(document.querySelectorAll('body > #outlet > * > *')))"); // V22+
-    script.append("   .find(e=>e.$server);");
+  /** The codec of the arguments (and of the results, unless the view declares another codec). */
+  private final RmiCodec codec;
 
-    script.append(
-        "if (!view) return callback({message:'Could not find view. Check that the view contains @ClientCallable methods'}), 0;");
+  /** The class descriptors that were transferred between this window and its view. */
+  private final RmiClassDictionary dictionary;
 
-    script.append("var callable = view.$server[arguments[0]];");
-    script.append(
-        "if (!callable) return callback({message:'Method is not published. Check that the method exists and it is annotated with @ClientCallable'}), 0;");
+  private final RmiCodec.Context context;
 
-    script.append("var raw = arguments[2];");
-    script.append("arguments[1] = arguments[1].map((arg,i)=>raw[i]?arg:JSON.parse(arg));");
-    script.append("callable.call(view.$server, ...arguments[1])");
-    script.append(" .then(result=>callback({result}))");
-    script.append(" .catch(e=>callback({message : e.message || ''}));");
+  /** The context of exceptions, which are always serialized without a dictionary. */
+  private final RmiCodec.Context exceptionContext;
 
-    String mainWindow = openSideChannel();
-    try {
-      @SuppressWarnings("unchecked")
-      Map<String, Object> result = (Map<String, Object>) ((JavascriptExecutor) rpc.getDriver())
-          .executeAsyncScript(script.toString(), callable, callArguments, raw);
+  /** Hooks for the codec, which replace stubs and listeners by their serialized form. */
+  private final class Context extends RmiClassDictionary.Scope {
 
-      if (!result.containsKey("result")) {
-        throw new RpcCallException((String) result.get("message"));
-      }
+    Context(RmiClassDictionary dictionary) {
+      super(dictionary);
+    }
 
-      return result.get("result");
-    } finally {
-      if (mainWindow != null) {
-        rpc.getDriver().switchTo().window(mainWindow);
+    @Override
+    public Object replaceObject(Object obj) {
+      if (obj instanceof RmiStub) {
+        return new RmiStubReplacement(((RmiStub) obj).$getId());
       }
+      if (obj instanceof RmiRemote) {
+        return RmiListenerReplacement.export(rpc, (RmiRemote) obj);
+      }
+      return obj;
     }
 
-  }
-
-  private String sideWindowHandle;
-
-  private String openSideChannel() {
-    if (sideChannelUrl == null) {
-      return null;
+    @Override
+    public Object resolveObject(Object obj) {
+      if (obj instanceof RmiRemoteReplacement) {
+        return ((RmiRemoteReplacement) obj).createStub(rpc, sideChannel, codec);
+      }
+      if (obj instanceof RmiListenerReplacement) {
+        return ((RmiListenerReplacement) obj).getListener(rpc);
+      }
+      return obj;
     }
 
-    WebDriver driver = rpc.getDriver();
-    String currentWindow = driver.getWindowHandle();
-    if (sideWindowHandle != null) {
-      driver.switchTo().window(sideWindowHandle);
-    } else {
-      String sideChannelName = UUID.randomUUID().toString();
-      int numberOfWindows = driver.getWindowHandles().size();
-      ((JavascriptExecutor) driver).executeScript("open(arguments[0],arguments[1])", sideChannelUrl,
-          sideChannelName);
-      WebDriverWait wait = new WebDriverWait(driver, 2, 100);
-      wait.until(ExpectedConditions.numberOfWindowsToBe(numberOfWindows + 1));
-      driver.switchTo().window(sideChannelName);
-      sideWindowHandle = driver.getWindowHandle();
+    @Override
+    public Class<?> resolveClass(String name) throws ClassNotFoundException {
+      return ClassUtils.getClass(interfaces[0].getClassLoader(), name, false);
     }
-    return currentWindow;
   }
 
-  private void closeSideChannel() {
-    WebDriver driver = rpc.getDriver();
-    String current = rpc.getDriver().getWindowHandle();
-    try {
-      driver.switchTo().window(sideWindowHandle);
-    } catch (NoSuchWindowException e) {
-      return;
-    }
-    sideWindowHandle = null;
-    driver.close();
-    driver.switchTo().window(current);
+  public HasRpcSupport$RmiInvocationHandler(HasRpcSupport rpc, Class<?>[] interfaces,
+      String instanceId, RpcSideChannel.Lease sideChannel, RmiCodec codec) {
+    super(rpc, sideChannel);
+    this.interfaces = interfaces;
+    this.instanceId = instanceId;
+    this.codec = codec;
+    dictionary = RmiClassDictionary.getInstance(rpc, sideChannel);
+    context = new Context(dictionary);
+    exceptionContext = new Context(null);
   }
 
+  @Override
+  boolean isLocal(Method method, Object[] args) {
+    if (method.getDeclaringClass() == RmiStub.class) {
+      return method.getName().equals("$getId");
+    }
 
-  abstract Object dispatch(Method method, Object[] args) throws Exception;
-
-  abstract Object convertResult(Object result, Method method, Class<?> returnType) throws Exception;
+    return interfaces.length > 1 && method.getName().equals("toString")
+        && (args == null || args.length == 0);
+  }
 
   @Override
-  public final Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    if (method.getDeclaringClass() == SideChannelSupport.class) {
-      closeSideChannel();
-      return null;
+  Object invokeLocally(Method method, Object[] args) {
+    if (method.getDeclaringClass() == RmiStub.class) {
+      return instanceId;
     }
 
-    try {
-      Object result = dispatch(method, args);
+    return Stream.of(interfaces).filter(c -> c != RmiStub.class).map(Class::getSimpleName)
+        .collect(Collectors.joining("&"));
+  }
 
-      Class<?> returnType = method.getReturnType();
+  @Override
+  ClientCall marshal(RpcMethodPlan plan, Object[] args) throws Exception {
+    Method method = plan.method;
+    Map<String, Object> invocation = new LinkedHashMap<>();
 
-      if (returnType != Void.TYPE && returnType.isPrimitive()) {
-        if (result == null) {
-          throw new ClassCastException("Cannot cast null as " + returnType);
-        }
-        returnType = ClassUtils.primitiveToWrapper(method.getReturnType());
-      }
+    Object arguments = null;
+    String uploadId = null;
+    if (args != null && args.length > 0) {
+      // primitives, strings and enums are transferred as a JSON array, without serialization
+      arguments = plan.toJsonArguments(args);
+    }
 
-      return convertResult(result, method, returnType);
-    } catch (RpcException e) {
-      throw e;
-    } catch (RpcCallException e) {
-      if (e.getCause() != null) {
-        throw new RpcException(method.getName(), args, e.getMessage(), e.getCause());
-      } else {
-        throw new RpcException(method.getName(), args, e.getMessage());
+    if (args != null && args.length > 0 && arguments == null) {
+      RmiBuffer data = RmiBuffer.acquire();
+      try {
+        codec.encode(args, data, context);
+        if (data.size() > RmiStagingArea.CHUNK_SIZE) {
+          uploadId = UUID.randomUUID().toString();
+          for (int offset = 0; offset < data.size(); offset += RmiStagingArea.CHUNK_SIZE) {
+            upload(uploadId, data, offset);
+          }
+        } else {
+          arguments = data.toBase64(0, data.size());
+        }
+      } finally {
+        data.release();
       }
-    } catch (Exception e) {
-      throw new RpcException(method.getName(), args, e);
     }
-  }
-
-}
 
+    Integer methodId = dictionary.getMethodId(method, instanceId == null);
+    if (methodId == null) {
+      handshake(method.getDeclaringClass());
+      methodId = dictionary.getMethodId(method, instanceId == null);
+    }
 
-final class HasRpcSupport$SimpleInvocationHandler extends HasRpcSupport$InvocationHandler {
+    if (instanceId != null) {
+      invocation.put(RmiConstants.RMI_INSTANCE_ID, instanceId);
+    }
 
-  public HasRpcSupport$SimpleInvocationHandler(HasRpcSupport rpc, String sideChannelUrl) {
-    super(rpc, sideChannelUrl);
-  }
+    if (methodId != null && methodId >= 0) {
+      invocation.put(RmiConstants.RMI_METHOD_ID, methodId);
+    } else {
+      // the server could not resolve the method, let it report the error
+      if (instanceId != null) {
+        invocation.put(RmiConstants.RMI_CLASS_NAME, method.getDeclaringClass().getName());
+      }
+      invocation.put(RmiConstants.RMI_METHOD_NAME, method.getName());
+      invocation.put(RmiConstants.RMI_METHOD_SIGNATURE, plan.signature);
+    }
+    if (plan.jsonResult) {
+      invocation.put(RmiConstants.RMI_JSON_RESULT, true);
+    }
+    putSession(invocation);
+    if (arguments != null) {
+      invocation.put(RmiConstants.RMI_METHOD_ARGUMENTS, arguments);
+    }
+    if (uploadId != null) {
+      invocation.put(RmiConstants.RMI_UPLOAD_ID, uploadId);
+    }
 
-  @Override
-  Object dispatch(Method method, Object[] args) throws RpcCallException {
-    return call(method.getName(), args);
+    return new ClientCall(RmiCallable.RMI_CALL_METHOD, new Object[] {invocation});
   }
 
   @Override
-  Object convertResult(Object result, Method method, Class<?> returnType)
-      throws IOException, ClassCastException {
-    if (returnType == JsonArrayList.class) {
-      return TypeConversion.castList((List<?>) result, method.getGenericReturnType());
+  int drainEvents() throws Exception {
+    Map<String, Object> invocation = new LinkedHashMap<>();
+    invocation.put(RmiConstants.RMI_DRAIN_EVENTS, true);
+    List<?> events = callForList(invocation);
+
+    // all the events are delivered, even if a listener fails
+    Exception failure = null;
+    int delivered = 0;
+    for (Object e : events) {
+      RmiEvent event = (RmiEvent) e;
+      Object listener = RmiListenerReplacement.find(rpc, event.getListenerId());
+      if (listener == null) {
+        // the listener was unexported
+        continue;
+      }
+      delivered++;
+      try {
+        event.deliver(listener);
+      } catch (InvocationTargetException ex) {
+        failure = failure == null && ex.getCause() instanceof Exception
+            ? (Exception) ex.getCause() : failure;
+      } catch (Exception ex) {
+        failure = failure == null ? ex : failure;
+      }
     }
-    if (returnType == Void.TYPE) {
-      return null;
+
+    if (failure != null) {
+      throw failure;
     }
-    return TypeConversion.cast(result, returnType);
+    return delivered;
   }
 
-}
-
-class HasRpcSupport$RmiInvocationHandler extends HasRpcSupport$InvocationHandler {
-
-  private final Class<?>[] interfaces;
-  private final String instanceId;
+  /**
+   * Asks the server to assign ids to the methods of an interface, so that invocations of those
+   * methods carry their id instead of their name and signature. The ids are held by the dictionary
+   * until it's reset.
+   */
+  private void handshake(Class<?> declaringClass) throws Exception {
+    List<Method> methods = Stream.of(declaringClass.getMethods())
+        .filter(m -> !Modifier.isStatic(m.getModifiers())).collect(Collectors.toList());
+
+    List<Object> entries = new ArrayList<>(methods.size());
+    for (Method m : methods) {
+      entries.add(Arrays.asList(m.getName(),
+          Stream.of(m.getParameterTypes()).map(Class::getName).collect(Collectors.toList())));
+    }
 
-  public HasRpcSupport$RmiInvocationHandler(HasRpcSupport rpc, Class<?>[] interfaces,
-      String instanceId, String sideChannelUrl) {
-    super(rpc, sideChannelUrl);
-    this.interfaces = interfaces;
-    this.instanceId = instanceId;
+    Map<String, Object> invocation = new LinkedHashMap<>();
+    invocation.put(RmiConstants.RMI_HANDSHAKE, entries);
+    if (instanceId != null) {
+      // the server checks the class against the remote object
+      invocation.put(RmiConstants.RMI_INSTANCE_ID, instanceId);
+      invocation.put(RmiConstants.RMI_CLASS_NAME, declaringClass.getName());
+    }
+    dictionary.putMethodIds(methods, instanceId == null, callForList(invocation));
   }
 
-  @Override
-  Object dispatch(Method method, Object[] args) throws IOException, RpcCallException {
-
-    if (method.getDeclaringClass() == RmiStub.class) {
-      if (method.getName().equals("$getId")) {
-        return instanceId;
-      }
+  /**
+   * Dispatches an invocation whose result is a list. If the server no longer holds the dictionary,
+   * the invocation is dispatched again, but only once.
+   */
+  private List<?> callForList(Map<String, Object> invocation) throws Exception {
+    ClientCall call = new ClientCall(RmiCallable.RMI_CALL_METHOD, new Object[] {invocation});
+    try {
+      putSession(invocation);
+      return (List<?>) convertResult(call(call), List.class, List.class);
+    } catch (RpcRetryException e) {
+      putSession(invocation);
+      return (List<?>) convertResult(call(call), List.class, List.class);
     }
+  }
 
-    if (interfaces.length > 1 && method.getName().equals("toString")
-        && (args == null || args.length == 0)) {
-      return Stream.of(interfaces).filter(c -> c != RmiStub.class).map(Class::getSimpleName)
-          .collect(Collectors.joining("&"));
+  /**
+   * Sends the id of the codec (unless it's the default one), and the state of the dictionary of
+   * class descriptors.
+   */
+  private void putSession(Map<String, Object> invocation) {
+    if (codec != RmiCodecs.JAVA) {
+      invocation.put(RmiConstants.RMI_CODEC, codec.getId());
     }
+    invocation.put(RmiConstants.RMI_DICTIONARY_ID, dictionary.getId());
+    invocation.put(RmiConstants.RMI_DICTIONARY_ACK, dictionary.getReceivedCount());
+  }
 
-    JsonObject invocation = Json.createObject();
+  /** Number of times that the upload of a chunk is attempted. */
+  private static final int UPLOAD_ATTEMPTS = 3;
 
-    String arguments = null;
-    if (args != null && args.length > 0) {
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      try (ObjectOutputStream oos = new ObjectOutputStream(baos) {
-        {
-          enableReplaceObject(true);
-        }
-
-        @Override
-        protected Object replaceObject(Object obj) throws IOException {
-          if (obj instanceof RmiStub) {
-            return new RmiStubReplacement(((RmiStub) obj).$getId());
-          }
-          return obj;
+  /**
+   * Upload a chunk of serialized arguments. Since the server ignores chunks that were already
+   * received, a chunk whose upload failed is sent again.
+   */
+  private void upload(String uploadId, RmiBuffer data, int offset) throws RpcCallException {
+    Map<String, Object> invocation = new LinkedHashMap<>();
+    invocation.put(RmiConstants.RMI_UPLOAD_ID, uploadId);
+    invocation.put(RmiConstants.RMI_TRANSFER_LENGTH, data.size());
+    invocation.put(RmiConstants.RMI_TRANSFER_OFFSET, offset);
+    invocation.put(RmiConstants.RMI_METHOD_ARGUMENTS, data.toBase64(offset,
+        Math.min(RmiStagingArea.CHUNK_SIZE, data.size() - offset)));
+    ClientCall call = new ClientCall(RmiCallable.RMI_CALL_METHOD, new Object[] {invocation});
+
+    Map<String, Object> res;
+    for (int attempt = 1;; attempt++) {
+      try {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> response = (Map<String, Object>) call(call);
+        res = response;
+        break;
+      } catch (RpcCallException | WebDriverException e) {
+        if (attempt == UPLOAD_ATTEMPTS) {
+          throw e;
         }
-      }) {
-        oos.writeObject(args);
       }
-      arguments = Base64.getEncoder().encodeToString(baos.toByteArray());
     }
 
-    Class<?>[] parameterTypes = method.getParameterTypes();
-    JsonArray signature = Json.createArray();
-    for (int i = 0; i < parameterTypes.length; i++) {
-      signature.set(i, Json.create(parameterTypes[i].getName()));
+    if (res.containsKey(RmiConstants.RMI_RESPONSE_ERROR)) {
+      throw new RpcCallException((String) res.get(RmiConstants.RMI_RESPONSE_ERROR));
     }
-
-    if (instanceId != null) {
-      invocation.put(RmiConstants.RMI_INSTANCE_ID, instanceId);
-      invocation.put(RmiConstants.RMI_CLASS_NAME, method.getDeclaringClass().getName());
-    }
-
-    invocation.put(RmiConstants.RMI_METHOD_NAME, method.getName());
-    invocation.put(RmiConstants.RMI_METHOD_SIGNATURE, signature);
-    if (arguments != null) {
-      invocation.put(RmiConstants.RMI_METHOD_ARGUMENTS, arguments);
-    }
-
-    return call(RmiCallable.RMI_CALL_METHOD, invocation);
   }
 
   private static final String E_INVOKE_MESSAGE = "An exception was thrown on the server-side";
 
   @Override
-  Object convertResult(Object result, Method method, Class<?> returnType)
+  Object convertResult(Object result, Type resultType, Class<?> returnType)
       throws IOException, ClassCastException, ClassNotFoundException, RpcCallException {
     if (result == null && returnType == Void.TYPE) {
       return null;
@@ -450,41 +610,145 @@ class HasRpcSupport$RmiInvocationHandler extends HasRpcSupport$InvocationHandler
         if (map.containsKey(RmiConstants.RMI_RESPONSE_ERROR)) {
           RmiError err = RmiError.valueOf((String) map.get(RmiConstants.RMI_RESPONSE_ERROR));
           String msg = err == RmiError.E_INVOKE ? E_INVOKE_MESSAGE : err.name();
-          if (err.hasException()) {
-            throw new RpcCallException(msg, (Throwable) unmarshal(map));
+          if (err == RmiError.E_DICTIONARY_NOT_EXIST) {
+            dictionary.reset();
+            throw new RpcRetryException(msg);
+          } else if (err.hasException()) {
+            throw new RpcCallException(msg, remoteException(map));
           } else {
             throw new RpcCallException(msg);
           }
+        } else if (map.containsKey(RmiConstants.RMI_RESPONSE_JSON)) {
+          return TypeConversion.fromJsonResult(map.get(RmiConstants.RMI_RESPONSE_JSON),
+              resultType);
         } else {
-          return unmarshal(map);
+          return unmarshal(map, context);
         }
       }
     }
 
     if (returnType == JsonArrayList.class) {
-      return TypeConversion.castList((List<?>) result, method.getGenericReturnType());
+      return TypeConversion.castList((List<?>) result, resultType);
     }
 
     return TypeConversion.cast(result, returnType);
   }
 
-  private Object unmarshal(Map<String, Object> res) throws IOException, ClassNotFoundException {
-    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
-        Base64.getDecoder().decode((String) res.get(RmiConstants.RMI_RESPONSE_DATA)))) {
-      {
-        enableResolveObject(true);
+  /**
+   * Creates the summary of the exception of an error response. The serialized exception is
+   * transferred when it's requested from the summary (or from any of its causes).
+   */
+  private RmiRemoteException remoteException(Map<String, Object> res) {
+    Callable<Throwable> fetcher = null;
+    if (res.containsKey(RmiConstants.RMI_TRANSFER_ID)) {
+      // the staged exception is fetched from its first chunk
+      Map<String, Object> staged = new HashMap<>();
+      staged.put(RmiConstants.RMI_RESPONSE_DATA, "");
+      staged.put(RmiConstants.RMI_TRANSFER_ID, res.get(RmiConstants.RMI_TRANSFER_ID));
+      staged.put(RmiConstants.RMI_TRANSFER_LENGTH, res.get(RmiConstants.RMI_TRANSFER_LENGTH));
+      fetcher = new Callable<Throwable>() {
+        private Throwable exception;
+
+        @Override
+        public synchronized Throwable call() throws Exception {
+          if (exception == null) {
+            exception = (Throwable) unmarshal(staged, exceptionContext);
+          }
+          return exception;
+        }
+      };
+    }
+
+    List<?> summary = (List<?>) res.get(RmiConstants.RMI_EXCEPTION);
+    RmiRemoteException exception = null;
+    for (int depth = summary.size() - 1; depth >= 0; depth--) {
+      List<?> entry = (List<?>) summary.get(depth);
+      List<?> frames = (List<?>) entry.get(2);
+      StackTraceElement[] stackTrace = new StackTraceElement[frames.size()];
+      for (int i = 0; i < stackTrace.length; i++) {
+        List<?> frame = (List<?>) frames.get(i);
+        stackTrace[i] = new StackTraceElement((String) frame.get(0), (String) frame.get(1),
+            (String) frame.get(2), ((Number) frame.get(3)).intValue());
+      }
+      exception = new RmiRemoteException((String) entry.get(0), (String) entry.get(1),
+          stackTrace, exception, fetcher, depth);
+    }
+    return exception;
+  }
+
+  /**
+   * Decodes the data of a response, with the codec given by the response. Exceptions are always
+   * encoded with {@link JavaRmiCodec}.
+   */
+  private Object unmarshal(Map<String, Object> res, RmiCodec.Context context)
+      throws IOException, ClassNotFoundException {
+    if (res.containsKey(RmiConstants.RMI_DICTIONARY_ACK)
+        && dictionary.getId().equals(res.get(RmiConstants.RMI_DICTIONARY_ID))) {
+      dictionary.acknowledge(((Number) res.get(RmiConstants.RMI_DICTIONARY_ACK)).intValue());
+    }
+
+    RmiCodec responseCodec = RmiCodecs.JAVA;
+    if (res.containsKey(RmiConstants.RMI_CODEC)) {
+      String codecId = (String) res.get(RmiConstants.RMI_CODEC);
+      responseCodec = RmiCodecs.get(codecId);
+      if (responseCodec == null) {
+        throw new IOException("Unknown RMI codec " + codecId);
+      }
+    }
+    try (InputStream in = openResponse(res)) {
+      return responseCodec.decode(in, context);
+    }
+  }
+
+  /**
+   * Returns a stream with the serialized data of a response. The data is decoded from Base64 as
+   * the stream is read. If the response was staged, the remaining chunks are fetched as the stream
+   * is read.
+   */
+  private InputStream openResponse(Map<String, Object> res) {
+    String data = (String) res.get(RmiConstants.RMI_RESPONSE_DATA);
+    if (!res.containsKey(RmiConstants.RMI_TRANSFER_ID)) {
+      return RmiBuffer.decode(data);
+    }
+
+    String transferId = (String) res.get(RmiConstants.RMI_TRANSFER_ID);
+    long length = ((Number) res.get(RmiConstants.RMI_TRANSFER_LENGTH)).longValue();
+    return new SequenceInputStream(new Enumeration<InputStream>() {
+      private String chunk = data;
+      private long offset;
+
+      @Override
+      public boolean hasMoreElements() {
+        return chunk != null || offset < length;
       }
 
       @Override
-      protected Object resolveObject(Object obj) throws IOException {
-        if (obj instanceof RmiRemoteReplacement) {
-          return ((RmiRemoteReplacement) obj).createStub(rpc, sideChannelUrl);
+      @SneakyThrows
+      public InputStream nextElement() {
+        if (chunk == null) {
+          chunk = fetchChunk(transferId, offset);
         }
-        return obj;
+        offset += RmiBuffer.decodedLength(chunk);
+        InputStream in = RmiBuffer.decode(chunk);
+        chunk = null;
+        return in;
       }
-    }) {
-      return ois.readObject();
+    });
+  }
+
+  /** Fetches a chunk of a staged response, and returns its Base64 encoding. */
+  private String fetchChunk(String transferId, long offset) throws RpcCallException {
+    Map<String, Object> invocation = new LinkedHashMap<>();
+    invocation.put(RmiConstants.RMI_TRANSFER_ID, transferId);
+    invocation.put(RmiConstants.RMI_TRANSFER_OFFSET, offset);
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> res = (Map<String, Object>) call(
+        new ClientCall(RmiCallable.RMI_CALL_METHOD, new Object[] {invocation}));
+    if (res.containsKey(RmiConstants.RMI_RESPONSE_ERROR)) {
+      throw new RpcCallException((String) res.get(RmiConstants.RMI_RESPONSE_ERROR));
     }
+    return (String) res.get(RmiConstants.RMI_RESPONSE_DATA);
   }
 
 }
@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * {@link RmiCodec} that uses Java serialization. This is the default codec, and it's always used
+ * for the exceptions of failed invocations. Between a proxy and its view, class descriptors are
+ * written in full only the first time they are transferred. Decoding is bounded by
+ * {@link RmiInputLimits}.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+public final class JavaRmiCodec implements RmiCodec {
+
+  /** The id of this codec. */
+  public static final String ID = "java";
+
+  @Override
+  public String getId() {
+    return ID;
+  }
+
+  @Override
+  public void encode(Object value, OutputStream out, Context context) throws IOException {
+    RmiClassDictionary dictionary = RmiClassDictionary.of(context);
+    try (ObjectOutputStream oos = new ObjectOutputStream(out) {
+      {
+        enableReplaceObject(true);
+      }
+
+      @Override
+      protected Object replaceObject(Object obj) throws IOException {
+        return context.replaceObject(obj);
+      }
+
+      @Override
+      protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+        if (dictionary == null) {
+          super.writeClassDescriptor(desc);
+          return;
+        }
+
+        int id = dictionary.reference(desc);
+        if (id >= 0) {
+          writeByte(RmiClassDictionary.REFERENCE);
+          writeShort(id);
+        } else if ((id = dictionary.define(desc)) >= 0) {
+          writeByte(RmiClassDictionary.DEFINITION);
+          writeShort(id);
+          super.writeClassDescriptor(desc);
+        } else {
+          writeByte(RmiClassDictionary.INLINE);
+          super.writeClassDescriptor(desc);
+        }
+      }
+    }) {
+      oos.writeObject(value);
+    }
+  }
+
+  @Override
+  public Object decode(InputStream in, Context context)
+      throws IOException, ClassNotFoundException {
+    RmiClassDictionary dictionary = RmiClassDictionary.of(context);
+    try (ObjectInputStream ois = new ObjectInputStream(in) {
+      {
+        enableResolveObject(true);
+      }
+
+      @Override
+      protected Object resolveObject(Object obj) throws IOException {
+        return context.resolveObject(obj);
+      }
+
+      @Override
+      protected Class<?> resolveClass(ObjectStreamClass desc)
+          throws IOException, ClassNotFoundException {
+        return context.resolveClass(desc.getName());
+      }
+
+      @Override
+      protected ObjectStreamClass readClassDescriptor()
+          throws IOException, ClassNotFoundException {
+        if (dictionary == null) {
+          return super.readClassDescriptor();
+        }
+
+        int kind = readUnsignedByte();
+        switch (kind) {
+          case RmiClassDictionary.REFERENCE:
+            return dictionary.lookup(readUnsignedShort());
+          case RmiClassDictionary.DEFINITION:
+            int id = readUnsignedShort();
+            ObjectStreamClass desc = super.readClassDescriptor();
+            dictionary.store(id, desc);
+            return desc;
+          case RmiClassDictionary.INLINE:
+            return super.readClassDescriptor();
+          default:
+            throw new StreamCorruptedException("Invalid descriptor kind " + kind);
+        }
+      }
+    }) {
+      RmiInputLimits.Filter filter = RmiInputLimits.install(ois);
+      try {
+        return ois.readObject();
+      } catch (InvalidClassException e) {
+        filter.rethrow(e);
+        throw e;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,164 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2023 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+
+/**
+ * Buffer where RMI arguments and results are encoded. On the client side, buffers are pooled per
+ * thread, so that an invocation reuses the (already grown) buffers of the previous ones. Buffers
+ * are not pooled on the server side, since a thread-local pool on the threads of the servlet
+ * container would retain the classes of the application after it is redeployed. The contents of
+ * the buffers are converted to and from Base64 without intermediate copies.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+final class RmiBuffer extends ByteArrayOutputStream {
+
+  /**
+   * Buffers that grow beyond this capacity are discarded after use, instead of being pooled. Large
+   * payloads are transferred in chunks anyway, and each client thread retains at most
+   * {@code POOL_SIZE * MAX_POOLED_CAPACITY} bytes.
+   */
+  static final int MAX_POOLED_CAPACITY = 1 << 18;
+
+  /** Maximum number of buffers pooled by each thread. */
+  private static final int POOL_SIZE = 2;
+
+  private static final ThreadLocal<Deque<RmiBuffer>> POOL =
+      ThreadLocal.withInitial(ArrayDeque::new);
+
+  private final boolean pooled;
+
+  private RmiBuffer(boolean pooled) {
+    super(8192);
+    this.pooled = pooled;
+  }
+
+  /**
+   * Returns a buffer from the pool of the current thread, or a new one if the pool is empty. This
+   * method is only called on the client side.
+   */
+  static RmiBuffer acquire() {
+    RmiBuffer buffer = POOL.get().poll();
+    return buffer != null ? buffer : new RmiBuffer(true);
+  }
+
+  /** Returns a new buffer, which is not returned to the pool when it's released. */
+  static RmiBuffer allocate() {
+    return new RmiBuffer(false);
+  }
+
+  /**
+   * Returns this buffer to the pool of the current thread, if it was acquired from the pool. The
+   * buffer must not be used again.
+   */
+  void release() {
+    reset();
+    if (pooled) {
+      Deque<RmiBuffer> pool = POOL.get();
+      if (buf.length <= MAX_POOLED_CAPACITY && pool.size() < POOL_SIZE) {
+        pool.push(this);
+      }
+    }
+  }
+
+  /** Returns the Base64 encoding of a range of the contents of this buffer. */
+  String toBase64(int offset, int length) {
+    return encode(buf, offset, length);
+  }
+
+  /** Returns the Base64 encoding of a range of an array, without copying the range. */
+  static String encode(byte[] data, int offset, int length) {
+    ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(data, offset, length));
+    return new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Returns a stream that decodes a Base64 string as it's read. Invalid characters are reported
+   * as an {@link IOException} when the stream reaches them.
+   */
+  static InputStream decode(String base64) {
+    return Base64.getDecoder().wrap(new CharStream(base64));
+  }
+
+  /** Returns the number of bytes encoded by a Base64 string (without line separators). */
+  static int decodedLength(String base64) {
+    int length = base64.length();
+    int padding = 0;
+    if (length > 0 && base64.charAt(length - 1) == '=') {
+      padding = length > 1 && base64.charAt(length - 2) == '=' ? 2 : 1;
+    }
+    return length / 4 * 3 - padding;
+  }
+
+  /**
+   * Stream that reads the characters of a string as bytes, in blocks. Characters outside ASCII
+   * are mapped to a byte that is not valid in Base64, so that the decoder rejects them.
+   */
+  private static final class CharStream extends InputStream {
+
+    private final String text;
+
+    private int position;
+
+    CharStream(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public int read() {
+      return position < text.length() ? toByte(text.charAt(position++)) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      int n = Math.min(len, text.length() - position);
+      if (n == 0) {
+        return -1;
+      }
+      for (int i = 0; i < n; i++) {
+        b[off + i] = (byte) toByte(text.charAt(position + i));
+      }
+      position += n;
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return text.length() - position;
+    }
+
+    private static int toByte(char c) {
+      return c < 0x80 ? c : 0xFF;
+    }
+  }
+
+}
@@ -25,18 +25,31 @@ import com.vaadin.flow.component.Component;
 import elemental.json.Json;
 import elemental.json.JsonArray;
 import elemental.json.JsonObject;
+import elemental.json.JsonType;
 import elemental.json.JsonValue;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.NotSerializableException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.ClassUtils;
 
 /**
  * Interface that defines the behaviour of a callable RMI object.
@@ -58,12 +71,59 @@ public interface RmiCallable {
   default JsonValue $call(JsonObject invocation) {
 
     RmiObjectRegistry registry = RmiObjectRegistry.getInstance((Component) this);
+    RmiStagingArea staging = RmiStagingArea.getInstance((Component) this);
+    RmiEventBuffer events = RmiEventBuffer.getInstance((Component) this);
 
-    String id, className, methodName, argumentsFromClient;
-    JsonArray signatureFromClient;
+    String id, className, methodName, argumentsFromClient, uploadId;
+    JsonArray signatureFromClient, jsonArgumentsFromClient;
+    Integer methodId;
 
     try {
 
+      if (invocation.hasKey(RmiConstants.RMI_TRANSFER_ID)) {
+        return RmiCallable$companion.createChunk(staging, invocation);
+      }
+
+      if (invocation.hasKey(RmiConstants.RMI_UPLOAD_ID)
+          && invocation.hasKey(RmiConstants.RMI_TRANSFER_OFFSET)) {
+        return RmiCallable$companion.receiveChunk(staging, invocation);
+      }
+
+      RmiCodec codec = RmiCallable$companion.getCodec(invocation);
+      if (codec == null) {
+        return RmiCallable$companion.createException(RmiError.E_CODEC_NOT_EXIST);
+      }
+
+      // the view may declare the codec of its results (otherwise, the invocation codec is used)
+      RmiCodec declaredCodec = RmiCodecs.forType(getClass());
+      RmiCodec responseCodec = declaredCodec != null ? declaredCodec : codec;
+
+      RmiClassDictionary dictionary = null;
+      if (invocation.hasKey(RmiConstants.RMI_DICTIONARY_ID)) {
+        int acknowledged = invocation.hasKey(RmiConstants.RMI_DICTIONARY_ACK)
+            ? (int) invocation.getNumber(RmiConstants.RMI_DICTIONARY_ACK)
+            : 0;
+        dictionary = RmiClassDictionary.getInstance((Component) this,
+            invocation.getString(RmiConstants.RMI_DICTIONARY_ID), acknowledged,
+            invocation.hasKey(RmiConstants.RMI_METHOD_ID));
+        if (dictionary == null) {
+          return RmiCallable$companion.createException(RmiError.E_DICTIONARY_NOT_EXIST);
+        }
+      }
+
+      if (invocation.hasKey(RmiConstants.RMI_DRAIN_EVENTS)) {
+        try {
+          return RmiCallable$companion.createResponse(registry, staging, responseCodec, dictionary,
+              events.drain());
+        } catch (ObjectStreamException e) {
+          return RmiCallable$companion.createException(RmiError.E_MARSHAL, e, staging);
+        }
+      }
+
+      if (invocation.hasKey(RmiConstants.RMI_HANDSHAKE)) {
+        return RmiCallable$companion.handshake(getClass(), registry, dictionary, invocation);
+      }
+
       try {
         if (invocation.hasKey(RmiConstants.RMI_INSTANCE_ID)) {
           id = invocation.getString(RmiConstants.RMI_INSTANCE_ID);
@@ -78,39 +138,72 @@ public interface RmiCallable {
           }
         } else {
           className = null;
-          if (id != null) {
+        }
+
+        if (invocation.hasKey(RmiConstants.RMI_METHOD_ID)) {
+          // the method was resolved during a handshake
+          methodId = (int) invocation.getNumber(RmiConstants.RMI_METHOD_ID);
+          methodName = null;
+          signatureFromClient = null;
+          if (className != null) {
+            throw new IllegalArgumentException();
+          }
+        } else {
+          methodId = null;
+          methodName = invocation.getString(RmiConstants.RMI_METHOD_NAME);
+          signatureFromClient = invocation.getArray(RmiConstants.RMI_METHOD_SIGNATURE);
+          if (className == null && id != null) {
             throw new IllegalArgumentException();
           }
         }
 
-        methodName = invocation.getString(RmiConstants.RMI_METHOD_NAME);
-        signatureFromClient = invocation.getArray(RmiConstants.RMI_METHOD_SIGNATURE);
+        // arguments are either serialized (as a string) or transferred as a JSON array
+        if (!invocation.hasKey(RmiConstants.RMI_METHOD_ARGUMENTS)) {
+          argumentsFromClient = null;
+          jsonArgumentsFromClient = null;
+        } else if (invocation.get(RmiConstants.RMI_METHOD_ARGUMENTS)
+            .getType() == JsonType.ARRAY) {
+          argumentsFromClient = null;
+          jsonArgumentsFromClient = invocation.getArray(RmiConstants.RMI_METHOD_ARGUMENTS);
+        } else {
+          argumentsFromClient = invocation.getString(RmiConstants.RMI_METHOD_ARGUMENTS);
+          jsonArgumentsFromClient = null;
+        }
 
-        argumentsFromClient = invocation.hasKey(RmiConstants.RMI_METHOD_ARGUMENTS)
-            ? invocation.getString(RmiConstants.RMI_METHOD_ARGUMENTS)
+        uploadId = invocation.hasKey(RmiConstants.RMI_UPLOAD_ID)
+            ? invocation.getString(RmiConstants.RMI_UPLOAD_ID)
             : null;
+
+        if ((argumentsFromClient != null || jsonArgumentsFromClient != null)
+            && uploadId != null) {
+          throw new IllegalArgumentException();
+        }
       } catch (Exception e) {
-        return RmiCallable$companion.createException(RmiError.E_PROTOCOL_ERROR, e);
+        return RmiCallable$companion.createException(RmiError.E_PROTOCOL_ERROR, e, staging);
       }
 
-      Class<?>[] signature = new Class<?>[signatureFromClient.length()];
-
       Class<?> clazz;
-      try {
-        clazz = className == null ? getClass() : Class.forName(className);
-      } catch (ClassNotFoundException e) {
-        return RmiCallable$companion.createException(RmiError.E_CLASS_NOT_FOUND);
-      }
-
       Method method;
-      try {
-        for (int i = 0; i < signatureFromClient.length(); i++) {
-          String argClassName = signatureFromClient.getString(i);
-          signature[i] = RmiCallable$companion.classForName(argClassName, clazz);
+      if (methodId != null) {
+        method = dictionary != null ? dictionary.getMethod(methodId) : null;
+        if (method == null) {
+          return RmiCallable$companion.createException(RmiError.E_DICTIONARY_NOT_EXIST);
+        }
+        clazz = id == null ? getClass() : method.getDeclaringClass();
+      } else {
+        try {
+          clazz = className == null
+              ? getClass()
+              : RmiCallable$companion.classForName(className, getClass());
+        } catch (ClassNotFoundException e) {
+          return RmiCallable$companion.createException(RmiError.E_CLASS_NOT_FOUND);
+        }
+
+        try {
+          method = RmiCallable$companion.getMethod(clazz, methodName, signatureFromClient);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+          return RmiCallable$companion.createException(RmiError.E_NO_SUCH_METHOD);
         }
-        method = clazz.getMethod(methodName, signature);
-      } catch (ClassNotFoundException | NoSuchMethodException e) {
-        return RmiCallable$companion.createException(RmiError.E_NO_SUCH_METHOD);
       }
 
       Object instance;
@@ -125,62 +218,97 @@ public interface RmiCallable {
         clazz.cast(instance);
       }
 
+      // methods resolved by id might belong to another class (e.g. the class of a remote object)
+      if (!method.getDeclaringClass().isInstance(instance)) {
+        return RmiCallable$companion.createException(RmiError.E_NO_SUCH_METHOD);
+      }
+
       Object[] args = null;
-      if (argumentsFromClient != null) {
-        byte[] decoded;
+      InputStream decoded = null;
+      long decodedLength = 0;
+      if (uploadId != null) {
         try {
-          decoded = Base64.getDecoder().decode(argumentsFromClient);
-        } catch (IllegalArgumentException e) {
-          return RmiCallable$companion.createException(RmiError.E_UNMARSHAL, e);
+          byte[] upload = staging.takeUpload(uploadId);
+          decoded = new ByteArrayInputStream(upload);
+          decodedLength = upload.length;
+        } catch (RpcException e) {
+          return RmiCallable$companion.createException(RmiError.E_TRANSFER_NOT_EXIST);
         }
+      } else if (argumentsFromClient != null) {
+        // the arguments are decoded from Base64 while they are read
+        decoded = RmiBuffer.decode(argumentsFromClient);
+        decodedLength = RmiBuffer.decodedLength(argumentsFromClient);
+      }
 
-        try (ObjectInputStream ois = new ObjectInputStream(
-            new ByteArrayInputStream(decoded)) {
-          {
-            enableResolveObject(true);
-          }
-
-          @Override
-          protected Object resolveObject(Object obj) throws java.io.IOException {
-            if (obj instanceof RmiStubReplacement) {
-              return registry.lookup(((RmiStubReplacement) obj).getInstanceId());
-            }
-            return obj;
-          }
-
-          @Override
-          protected java.lang.Class<?> resolveClass(java.io.ObjectStreamClass desc)
-              throws ClassNotFoundException, IOException {
-            return RmiCallable$companion.classForName(desc.getName(), clazz);
-          }
-
-        }) {
-          args = (Object[]) ois.readObject();
+      if (decoded != null) {
+        try {
+          RmiInputLimits.enforce(null, 0, 0, 0, decodedLength);
+          args = (Object[]) codec.decode(decoded,
+              new RmiClassDictionary.Scope(dictionary) {
+                @Override
+                public Object resolveObject(Object obj) {
+                  if (obj instanceof RmiStubReplacement) {
+                    return registry.lookup(((RmiStubReplacement) obj).getInstanceId());
+                  }
+                  if (obj instanceof RmiListenerReplacement) {
+                    return ((RmiListenerReplacement) obj).createProxy(events);
+                  }
+                  return obj;
+                }
+
+                @Override
+                public Class<?> resolveClass(String name) throws ClassNotFoundException {
+                  return RmiCallable$companion.classForName(name, clazz);
+                }
+              });
+        } catch (RmiClassDictionary.UnknownDescriptorException e) {
+          return RmiCallable$companion.createException(RmiError.E_DICTIONARY_NOT_EXIST);
+        } catch (RmiInputLimits.RejectedException e) {
+          return RmiCallable$companion.createException(RmiError.E_INPUT_REJECTED, e, staging);
         } catch (IOException e) {
-          return RmiCallable$companion.createException(RmiError.E_UNMARSHAL, e);
+          return RmiCallable$companion.createException(RmiError.E_UNMARSHAL, e, staging);
+        }
+      }
+
+      if (jsonArgumentsFromClient != null) {
+        try {
+          args = RmiCallable$companion.fromJsonArguments(jsonArgumentsFromClient,
+              method.getParameterTypes());
+        } catch (IllegalArgumentException e) {
+          return RmiCallable$companion.createException(RmiError.E_UNMARSHAL, e, staging);
         }
       }
 
       Object result;
       try {
-        result = method.invoke(instance, args);
+        result = RmiCallable$companion.invoke(method, instance, args);
       } catch (InvocationTargetException e) {
-        return RmiCallable$companion.createException(RmiError.E_INVOKE, e.getCause());
+        return RmiCallable$companion.createException(RmiError.E_INVOKE, e.getCause(), staging);
       }
 
       if (result == null || JsonCodec.canEncodeWithoutTypeInfo(result.getClass())) {
         return JsonCodec.encodeWithoutTypeInfo(result);
       }
 
+      if (invocation.hasKey(RmiConstants.RMI_JSON_RESULT)
+          && TypeConversion.isJsonResultType(method.getGenericReturnType())) {
+        try {
+          return RmiCallable$companion.createJsonResponse(result, method.getGenericReturnType());
+        } catch (IllegalArgumentException e) {
+          // the result has no exact JSON representation, serialize it instead
+        }
+      }
+
       try {
-        return RmiCallable$companion.createResponse(registry, result);
+        return RmiCallable$companion.createResponse(registry, staging, responseCodec, dictionary,
+            result);
       } catch (ObjectStreamException e) {
-        return RmiCallable$companion.createException(RmiError.E_MARSHAL, e);
+        return RmiCallable$companion.createException(RmiError.E_MARSHAL, e, staging);
       }
 
     } catch (Exception e) {
       try {
-        return RmiCallable$companion.createException(RmiError.E_UNKNOWN, e);
+        return RmiCallable$companion.createException(RmiError.E_UNKNOWN, e, staging);
       } catch (IOException e1) {
         throw new UndeclaredThrowableException(e);
       }
@@ -192,36 +320,352 @@ public interface RmiCallable {
 
 class RmiCallable$companion {
 
-  private static String encode(RmiObjectRegistry registry, Object result) throws IOException {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    try (ObjectOutputStream oos = new ObjectOutputStream(baos) {
-      {
-        enableReplaceObject(true);
-      }
+  /**
+   * Maximum number of stack trace elements, of each exception and each of its causes, that are
+   * transferred in the summary of an error response. It can be configured through the system
+   * property {@code com.flowingcode.vaadin.testbench.rpc.RmiCallable.stackTraceDepth}.
+   */
+  static final int STACK_TRACE_DEPTH =
+      Integer.getInteger(RmiCallable.class.getName() + ".stackTraceDepth", 16);
+
+  /** Maximum number of classes (and of methods) cached for each class that resolves them. */
+  static final int MAX_CACHED = 256;
+
+  /**
+   * Classes resolved by name, per class whose loader resolved them. Since the caches are held by a
+   * ClassValue, they don't prevent class loaders from being collected (e.g. after a reload in
+   * development mode).
+   */
+  private static final ClassValue<Map<String, Class<?>>> CLASSES =
+      new ClassValue<Map<String, Class<?>>>() {
+        @Override
+        protected Map<String, Class<?>> computeValue(Class<?> type) {
+          return new ConcurrentHashMap<>();
+        }
+      };
+
+  /** Methods resolved by their name and signature, per class that declares them. */
+  private static final ClassValue<Map<List<String>, Method>> METHODS =
+      new ClassValue<Map<List<String>, Method>>() {
+        @Override
+        protected Map<List<String>, Method> computeValue(Class<?> type) {
+          return new ConcurrentHashMap<>();
+        }
+      };
+
+  /** Type of the method handles that invoke a method, given the instance and its arguments. */
+  private static final MethodType INVOKER_TYPE =
+      MethodType.methodType(Object.class, Object.class, Object[].class);
+
+  /**
+   * Method handles of the methods invoked by RMI, per class that declares them. Methods whose
+   * handle cannot be obtained through a public lookup (or whose handle is not cached, because the
+   * cache is full) are invoked through reflection.
+   */
+  private static final ClassValue<Map<Method, Optional<MethodHandle>>> INVOKERS =
+      new ClassValue<Map<Method, Optional<MethodHandle>>>() {
+        @Override
+        protected Map<Method, Optional<MethodHandle>> computeValue(Class<?> type) {
+          return new ConcurrentHashMap<>();
+        }
+      };
+
+  /** Adds an entry to a cache, unless the cache is full. */
+  private static <K, V> void cache(Map<K, V> cache, K key, V value) {
+    if (cache.size() < MAX_CACHED) {
+      cache.putIfAbsent(key, value);
+    }
+  }
 
-      @Override
-      protected Object replaceObject(Object obj) throws java.io.IOException {
-        if (obj instanceof Component) {
-          throw new NotSerializableException(
-              "Serializing component classes is not supported by TestBench-RPC");
+  /**
+   * Encodes a value into a new buffer, which is not pooled. The caller must release the buffer
+   * (see {@link RmiBuffer#release()}).
+   */
+  private static RmiBuffer serialize(RmiObjectRegistry registry, RmiCodec codec,
+      RmiClassDictionary dictionary, Object result) throws IOException {
+    RmiBuffer buffer = RmiBuffer.allocate();
+    try {
+      codec.encode(result, buffer, new RmiClassDictionary.Scope(dictionary) {
+        @Override
+        public Object replaceObject(Object obj) throws IOException {
+          if (obj instanceof Component) {
+            throw new NotSerializableException(
+                "Serializing component classes is not supported by TestBench-RPC");
+          }
+          RmiListenerReplacement listener = RmiListenerReplacement.of(obj);
+          if (listener != null) {
+            return listener;
+          }
+          if (obj instanceof RmiRemote) {
+            String id = registry.register((RmiRemote) obj);
+            return new RmiRemoteReplacement(registry, id);
+          }
+          return obj;
         }
-        if (obj instanceof RmiRemote) {
-          String id = registry.register((RmiRemote) obj);
-          return new RmiRemoteReplacement(registry, id);
+
+        @Override
+        public Class<?> resolveClass(String name) {
+          throw new UnsupportedOperationException();
         }
-        return obj;
+      });
+    } catch (IOException | RuntimeException e) {
+      buffer.release();
+      throw e;
+    }
+    return buffer;
+  }
+
+  /** Returns the codec of the invocation, or {@code null} if it's not available. */
+  static RmiCodec getCodec(JsonObject invocation) {
+    if (!invocation.hasKey(RmiConstants.RMI_CODEC)) {
+      return RmiCodecs.JAVA;
+    }
+    return RmiCodecs.get(invocation.getString(RmiConstants.RMI_CODEC));
+  }
+
+  /**
+   * Create a response with the result encoded by the given codec. If the encoded result is larger
+   * than {@link RmiStagingArea#CHUNK_SIZE}, the response contains only the first chunk, and the
+   * rest of the data is staged until the client fetches it (see {@link #createChunk}).
+   */
+  static JsonObject createResponse(RmiObjectRegistry registry, RmiStagingArea staging,
+      RmiCodec codec, RmiClassDictionary dictionary, Object result) throws IOException {
+    RmiBuffer data = serialize(registry, codec, dictionary, result);
+    try {
+      return createResponse(staging, codec, dictionary, data);
+    } finally {
+      data.release();
+    }
+  }
+
+  private static JsonObject createResponse(RmiStagingArea staging, RmiCodec codec,
+      RmiClassDictionary dictionary, RmiBuffer data) {
+    JsonObject jsonResult = Json.createObject();
+    jsonResult.put(RmiConstants.RMI_RESPONSE_MARKER, RmiCallable.class.getName());
+    if (codec != RmiCodecs.JAVA) {
+      jsonResult.put(RmiConstants.RMI_CODEC, codec.getId());
+    }
+    if (dictionary != null) {
+      jsonResult.put(RmiConstants.RMI_DICTIONARY_ID, dictionary.getId());
+      jsonResult.put(RmiConstants.RMI_DICTIONARY_ACK, dictionary.getReceivedCount());
+    }
+    if (data.size() > RmiStagingArea.CHUNK_SIZE) {
+      // only staged data is copied out of the buffer
+      jsonResult.put(RmiConstants.RMI_TRANSFER_ID, staging.stage(data.toByteArray()));
+      jsonResult.put(RmiConstants.RMI_TRANSFER_LENGTH, data.size());
+      jsonResult.put(RmiConstants.RMI_RESPONSE_DATA, data.toBase64(0, RmiStagingArea.CHUNK_SIZE));
+    } else {
+      jsonResult.put(RmiConstants.RMI_RESPONSE_DATA, data.toBase64(0, data.size()));
+    }
+    return jsonResult;
+  }
+
+  /**
+   * Invokes a method through its cached method handle. As with {@link Method#invoke}, exceptions
+   * thrown by the method are wrapped in {@code InvocationTargetException}.
+   *
+   * @throws IllegalArgumentException if the instance or the arguments don't match the method
+   */
+  static Object invoke(Method method, Object instance, Object[] args)
+      throws InvocationTargetException, IllegalAccessException {
+    if (!checkArguments(method, instance, args)) {
+      // the arguments need a widening conversion, which is applied by Method.invoke
+      return method.invoke(instance, args);
+    }
+
+    Map<Method, Optional<MethodHandle>> invokers = INVOKERS.get(method.getDeclaringClass());
+    Optional<MethodHandle> invoker = invokers.get(method);
+    if (invoker == null) {
+      invoker = createInvoker(method);
+      cache(invokers, method, invoker);
+    }
+    if (!invoker.isPresent()) {
+      return method.invoke(instance, args);
+    }
+
+    try {
+      return invoker.get().invokeExact(instance, args);
+    } catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+  private static Optional<MethodHandle> createInvoker(Method method) {
+    MethodHandle handle;
+    try {
+      handle = MethodHandles.publicLookup().unreflect(method);
+    } catch (IllegalAccessException e) {
+      return Optional.empty();
+    }
+
+    if (Modifier.isStatic(method.getModifiers())) {
+      // the instance is ignored
+      handle = MethodHandles.dropArguments(handle, 0, Object.class);
+    }
+    return Optional.of(handle.asSpreader(Object[].class, method.getParameterCount())
+        .asType(INVOKER_TYPE));
+  }
+
+  /**
+   * Checks the instance and arguments of an invocation, as {@link Method#invoke} does, so that a
+   * mismatch is not reported as an exception thrown by the method.
+   *
+   * @return whether the arguments of primitive parameters have the exact wrapper type (otherwise,
+   *         they need a widening conversion, which the method handle does not apply)
+   */
+  private static boolean checkArguments(Method method, Object instance, Object[] args) {
+    if (!Modifier.isStatic(method.getModifiers())
+        && !method.getDeclaringClass().isInstance(instance)) {
+      throw new IllegalArgumentException("object is not an instance of declaring class");
+    }
+
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    if ((args == null ? 0 : args.length) != parameterTypes.length) {
+      throw new IllegalArgumentException("wrong number of arguments");
+    }
+
+    boolean exact = true;
+    for (int i = 0; i < parameterTypes.length; i++) {
+      Class<?> type = parameterTypes[i];
+      if (args[i] == null ? type.isPrimitive()
+          : !ClassUtils.isAssignable(args[i].getClass(), type, true)) {
+        throw new IllegalArgumentException("argument type mismatch");
+      }
+      if (type.isPrimitive() && args[i].getClass() != ClassUtils.primitiveToWrapper(type)) {
+        exact = false;
+      }
+    }
+    return exact;
+  }
+
+  /** Resolves a method from its name and the names of its parameter types. */
+  static Method getMethod(Class<?> clazz, String methodName, JsonArray signature)
+      throws ClassNotFoundException, NoSuchMethodException {
+    List<String> key = new ArrayList<>(signature.length() + 1);
+    key.add(methodName);
+    for (int i = 0; i < signature.length(); i++) {
+      key.add(signature.getString(i));
+    }
+
+    Map<List<String>, Method> methods = METHODS.get(clazz);
+    Method method = methods.get(key);
+    if (method == null) {
+      Class<?>[] parameterTypes = new Class<?>[signature.length()];
+      for (int i = 0; i < parameterTypes.length; i++) {
+        parameterTypes[i] = classForName(signature.getString(i), clazz);
+      }
+      method = clazz.getMethod(methodName, parameterTypes);
+      cache(methods, key, method);
+    }
+    return method;
+  }
+
+  /**
+   * Assigns ids to the methods listed by a handshake (each of them as an array with its name and
+   * its signature), and creates a response with their ids, in the same order. The methods are
+   * resolved in the view class or, if the handshake has a class name, in that class, which must be
+   * implemented by the remote object with the instance id of the handshake. Methods that cannot be
+   * resolved, and static methods, are assigned {@code -1}.
+   */
+  static JsonValue handshake(Class<?> viewClass, RmiObjectRegistry registry,
+      RmiClassDictionary dictionary, JsonObject invocation) throws IOException {
+    JsonArray methods;
+    Class<?> clazz;
+    try {
+      methods = invocation.getArray(RmiConstants.RMI_HANDSHAKE);
+      if (invocation.hasKey(RmiConstants.RMI_CLASS_NAME)) {
+        clazz = classForName(invocation.getString(RmiConstants.RMI_CLASS_NAME), viewClass);
+        Object instance;
+        try {
+          instance = registry.lookup(invocation.getString(RmiConstants.RMI_INSTANCE_ID));
+        } catch (RpcException e) {
+          return createException(RmiError.E_OBJECT_NOT_EXIST);
+        }
+        clazz.cast(instance);
+      } else if (invocation.hasKey(RmiConstants.RMI_INSTANCE_ID)) {
+        throw new IllegalArgumentException();
+      } else {
+        clazz = viewClass;
+      }
+      if (dictionary == null) {
+        throw new IllegalArgumentException();
+      }
+    } catch (ClassNotFoundException e) {
+      return createException(RmiError.E_CLASS_NOT_FOUND);
+    } catch (Exception e) {
+      return createException(RmiError.E_PROTOCOL_ERROR, e);
+    }
+
+    JsonArray ids = Json.createArray();
+    for (int i = 0; i < methods.length(); i++) {
+      JsonArray entry = methods.getArray(i);
+      int id;
+      try {
+        Method method = getMethod(clazz, entry.getString(0), entry.getArray(1));
+        id = Modifier.isStatic(method.getModifiers()) ? -1 : dictionary.register(method);
+      } catch (ClassNotFoundException | NoSuchMethodException e) {
+        id = -1;
       }
-    }) {
-      oos.writeObject(result);
+      ids.set(i, id);
     }
+    return ids;
+  }
 
-    return Base64.getEncoder().encodeToString(baos.toByteArray());
+  /** Create a response with a result that is transferred as JSON. */
+  static JsonObject createJsonResponse(Object result, Type type) {
+    JsonObject jsonResult = Json.createObject();
+    jsonResult.put(RmiConstants.RMI_RESPONSE_MARKER, RmiCallable.class.getName());
+    jsonResult.put(RmiConstants.RMI_RESPONSE_JSON,
+        TypeConversion.toJsonValue(TypeConversion.toJsonResult(result, type)));
+    return jsonResult;
   }
 
-  static JsonObject createResponse(RmiObjectRegistry registry, Object result) throws IOException {
+  /** Receive a chunk of a staged upload, and create an empty response. */
+  static JsonObject receiveChunk(RmiStagingArea staging, JsonObject invocation)
+      throws IOException {
+    try {
+      String uploadId = invocation.getString(RmiConstants.RMI_UPLOAD_ID);
+      int length = (int) invocation.getNumber(RmiConstants.RMI_TRANSFER_LENGTH);
+      int offset = (int) invocation.getNumber(RmiConstants.RMI_TRANSFER_OFFSET);
+      byte[] chunk =
+          Base64.getDecoder().decode(invocation.getString(RmiConstants.RMI_METHOD_ARGUMENTS));
+      // the upload is rejected before its buffer is allocated
+      RmiInputLimits.enforce(null, 0, 0, 0, length);
+      staging.receive(uploadId, length, offset, chunk);
+    } catch (RmiInputLimits.RejectedException e) {
+      return createException(RmiError.E_INPUT_REJECTED, e, staging);
+    } catch (Exception e) {
+      return createException(RmiError.E_PROTOCOL_ERROR, e, staging);
+    }
+
+    JsonObject jsonResult = Json.createObject();
+    jsonResult.put(RmiConstants.RMI_RESPONSE_MARKER, RmiCallable.class.getName());
+    return jsonResult;
+  }
+
+  /** Create a response with a chunk of a staged response. */
+  static JsonObject createChunk(RmiStagingArea staging, JsonObject invocation) throws IOException {
+    String transferId;
+    int offset;
+    try {
+      transferId = invocation.getString(RmiConstants.RMI_TRANSFER_ID);
+      offset = (int) invocation.getNumber(RmiConstants.RMI_TRANSFER_OFFSET);
+    } catch (Exception e) {
+      return createException(RmiError.E_PROTOCOL_ERROR, e, staging);
+    }
+
+    String data;
+    try {
+      data = staging.getChunk(transferId, offset);
+    } catch (RpcException e) {
+      return createException(RmiError.E_TRANSFER_NOT_EXIST);
+    } catch (IllegalArgumentException e) {
+      return createException(RmiError.E_PROTOCOL_ERROR, e, staging);
+    }
+
     JsonObject jsonResult = Json.createObject();
     jsonResult.put(RmiConstants.RMI_RESPONSE_MARKER, RmiCallable.class.getName());
-    jsonResult.put(RmiConstants.RMI_RESPONSE_DATA, encode(registry, result));
+    jsonResult.put(RmiConstants.RMI_RESPONSE_DATA, data);
     return jsonResult;
   }
 
@@ -230,6 +674,21 @@ class RmiCallable$companion {
   }
 
   static JsonObject createException(RmiError error, Throwable t) throws IOException {
+    return createException(error, t, null);
+  }
+
+  /**
+   * Create an error response. If the error has an exception, the response contains a summary of
+   * the exception (see {@link #summarize(Throwable)}), and its serialized form is staged, so that
+   * it's transferred only if the client requests it.
+   *
+   * @param error the error code
+   * @param t the exception, if the error has one
+   * @param staging the staging area of the serialized exception, or {@code null} if the serialized
+   *        exception is not available to the client
+   */
+  static JsonObject createException(RmiError error, Throwable t, RmiStagingArea staging)
+      throws IOException {
     if (error.hasException() ^ (t != null)) {
       throw new IllegalArgumentException();
     }
@@ -237,11 +696,73 @@ class RmiCallable$companion {
     jsonResult.put(RmiConstants.RMI_RESPONSE_MARKER, RmiCallable.class.getName());
     jsonResult.put(RmiConstants.RMI_RESPONSE_ERROR, error.name());
     if (t != null) {
-      jsonResult.put(RmiConstants.RMI_RESPONSE_DATA, encode(null, t));
+      jsonResult.put(RmiConstants.RMI_EXCEPTION, summarize(t));
+      if (staging != null) {
+        RmiBuffer data;
+        try {
+          data = serialize(null, RmiCodecs.JAVA, null, t);
+        } catch (ObjectStreamException e) {
+          // the exception is not serializable, the client gets the summary only
+          return jsonResult;
+        }
+        try {
+          jsonResult.put(RmiConstants.RMI_TRANSFER_ID, staging.stageException(data.toByteArray()));
+          jsonResult.put(RmiConstants.RMI_TRANSFER_LENGTH, data.size());
+        } finally {
+          data.release();
+        }
+      }
     }
     return jsonResult;
   }
 
+  /**
+   * Returns a summary of an exception and its causes, outermost first. Each of them is summarized
+   * as an array with its class name, its message and its stack trace, where each stack trace
+   * element is an array with the declaring class, the method name, the file name and the line
+   * number. Stack traces are trimmed to {@link #STACK_TRACE_DEPTH} elements.
+   */
+  static JsonArray summarize(Throwable t) {
+    JsonArray summary = Json.createArray();
+    Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (; t != null && seen.add(t); t = t.getCause()) {
+      StackTraceElement[] stackTrace = t.getStackTrace();
+      JsonArray frames = Json.createArray();
+      for (int i = 0; i < Math.min(stackTrace.length, STACK_TRACE_DEPTH); i++) {
+        JsonArray frame = Json.createArray();
+        frame.set(0, stackTrace[i].getClassName());
+        frame.set(1, stackTrace[i].getMethodName());
+        frame.set(2, nullable(stackTrace[i].getFileName()));
+        frame.set(3, stackTrace[i].getLineNumber());
+        frames.set(i, frame);
+      }
+
+      JsonArray entry = Json.createArray();
+      entry.set(0, t.getClass().getName());
+      entry.set(1, nullable(t.getMessage()));
+      entry.set(2, frames);
+      summary.set(summary.length(), entry);
+    }
+    return summary;
+  }
+
+  private static JsonValue nullable(String value) {
+    return value == null ? Json.createNull() : Json.create(value);
+  }
+
+  /** Converts the arguments that were transferred as a JSON array. */
+  static Object[] fromJsonArguments(JsonArray arguments, Class<?>[] signature) {
+    if (arguments.length() != signature.length) {
+      throw new IllegalArgumentException("Expected " + signature.length + " arguments");
+    }
+
+    Object[] args = new Object[signature.length];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = TypeConversion.fromJsonArgument(arguments.get(i), signature[i]);
+    }
+    return args;
+  }
+
   /** Class.forName, with support for primitive types. */
   static Class<?> classForName(String className, Class<?> caller) throws ClassNotFoundException {
     switch (className) {
@@ -264,8 +785,16 @@ class RmiCallable$companion {
     }
     if (className.equals(RmiStubReplacement.class.getName())) {
       return RmiStubReplacement.class;
+    } else if (className.equals(RmiListenerReplacement.class.getName())) {
+      return RmiListenerReplacement.class;
     } else {
-      return Class.forName(className, false, caller.getClassLoader());
+      Map<String, Class<?>> classes = CLASSES.get(caller);
+      Class<?> clazz = classes.get(className);
+      if (clazz == null) {
+        clazz = Class.forName(className, false, caller.getClassLoader());
+        cache(classes, className, clazz);
+      }
+      return clazz;
     }
   }
 }
@@ -0,0 +1,323 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.ComponentUtil;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import lombok.Synchronized;
+
+/**
+ * Dictionary of the class descriptors that were transferred between a client and a view, so that
+ * Java serialization (see {@link JavaRmiCodec}) only writes each descriptor in full the first time
+ * it's used. After that, the descriptor is written as a small id, as if all the invocations
+ * were written to the same stream.
+ *
+ * <p>
+ * Each side assigns ids to the descriptors it writes, and it only refers to an id after the other
+ * side has acknowledged it (i.e. after the other side reported that it has received all the ids up
+ * to that one), so that lost or reordered messages cannot break the synchronization. The client
+ * identifies its dictionary with a random id. If the server no longer holds the dictionary of a
+ * client (e.g. because the view was reloaded), the invocation fails with
+ * {@link RmiError#E_DICTIONARY_NOT_EXIST} before it's executed, and the client resets its
+ * dictionary and dispatches the invocation again.
+ *
+ * <p>
+ * The dictionary also holds the ids that the server assigned to methods during a handshake, so
+ * that invocations carry the id of the method instead of its name and signature.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+final class RmiClassDictionary {
+
+  /** Maximum number of descriptors defined by each side. Other descriptors are written inline. */
+  static final int MAX_SIZE = 1024;
+
+  /** Maximum number of client dictionaries held by a view. The oldest one is discarded first. */
+  private static final int MAX_DICTIONARIES = 16;
+
+  /** The descriptor is written in full, without an id. */
+  static final int INLINE = 0;
+
+  /** The descriptor is written in full, and it's assigned an id. */
+  static final int DEFINITION = 1;
+
+  /** The descriptor is written as the id of a previous definition. */
+  static final int REFERENCE = 2;
+
+  /**
+   * Dictionaries of the calls from each test to its main window. The dictionaries of side channels
+   * are held by their lease, since a lease refers to its test.
+   */
+  private static final Map<HasRpcSupport, RmiClassDictionary> CLIENT_INSTANCES =
+      new WeakHashMap<>();
+
+  private String id;
+
+  /** Ids of the descriptors defined by this side. */
+  private final Map<String, Integer> defined = new HashMap<>();
+
+  /** Number of ids defined by this side that the other side has received. */
+  private int acknowledged;
+
+  /** Descriptors defined by the other side, indexed by their id. */
+  private final List<ObjectStreamClass> received = new ArrayList<>();
+
+  /** Number of ids defined by the other side that were received without gaps. */
+  private int receivedCount;
+
+  /** Methods that were assigned an id (on the server side), indexed by their id. */
+  private final List<Method> methods = new ArrayList<>();
+
+  /** Ids of the methods that were assigned an id (on the server side). */
+  private final Map<Method, Integer> methodIds = new HashMap<>();
+
+  /** Ids that the server assigned to methods of the view (on the client side). */
+  private final Map<Method, Integer> viewMethodIds = new HashMap<>();
+
+  /** Ids that the server assigned to methods of remote objects (on the client side). */
+  private final Map<Method, Integer> remoteMethodIds = new HashMap<>();
+
+  private RmiClassDictionary(String id) {
+    this.id = id;
+  }
+
+  /** A codec context whose class descriptors are held by a dictionary. */
+  abstract static class Scope implements RmiCodec.Context {
+
+    private final RmiClassDictionary dictionary;
+
+    /**
+     * @param dictionary the dictionary of the context, or {@code null} if descriptors are written
+     *        in the standard format
+     */
+    Scope(RmiClassDictionary dictionary) {
+      this.dictionary = dictionary;
+    }
+
+  }
+
+  /** The client dictionaries held by a view, in access order. */
+  @SuppressWarnings("serial")
+  private static final class Dictionaries extends LinkedHashMap<String, RmiClassDictionary> {
+
+    Dictionaries() {
+      super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, RmiClassDictionary> eldest) {
+      return size() > MAX_DICTIONARIES;
+    }
+  }
+
+  /** Thrown when a stream refers to a descriptor that is not held by the dictionary. */
+  @SuppressWarnings("serial")
+  static final class UnknownDescriptorException extends ObjectStreamException {
+    UnknownDescriptorException(int id) {
+      super("Unknown class descriptor " + id);
+    }
+  }
+
+  /** Returns the dictionary of the given codec context, or {@code null} if it has none. */
+  static RmiClassDictionary of(RmiCodec.Context context) {
+    return context instanceof Scope ? ((Scope) context).dictionary : null;
+  }
+
+  /** Returns the dictionary of the calls from the given test to a window or side channel. */
+  static synchronized RmiClassDictionary getInstance(HasRpcSupport rpc,
+      RpcSideChannel.Lease sideChannel) {
+    if (sideChannel != null) {
+      return sideChannel.dictionary;
+    }
+    return CLIENT_INSTANCES.computeIfAbsent(rpc, __ -> newClientInstance());
+  }
+
+  /** Creates a dictionary for the calls from a client, identified by a random id. */
+  static RmiClassDictionary newClientInstance() {
+    return new RmiClassDictionary(UUID.randomUUID().toString());
+  }
+
+  /**
+   * Returns the dictionary of a client, creating it if needed.
+   *
+   * @param c the view that receives the invocations
+   * @param id the id of the client dictionary
+   * @param acknowledged the number of ids (defined by the server) that the client has received
+   * @param required whether the client refers to method ids, so that the dictionary must exist
+   * @return the dictionary, or {@code null} if the client has received ids from a dictionary that
+   *         is no longer held by the view
+   */
+  static RmiClassDictionary getInstance(Component c, String id, int acknowledged,
+      boolean required) {
+    Dictionaries dictionaries = ComponentUtil.getData(c, Dictionaries.class);
+    if (dictionaries == null) {
+      dictionaries = new Dictionaries();
+      ComponentUtil.setData(c, Dictionaries.class, dictionaries);
+    }
+
+    synchronized (dictionaries) {
+      RmiClassDictionary dictionary = dictionaries.get(id);
+      if (dictionary == null) {
+        if (acknowledged > 0 || required) {
+          return null;
+        }
+        dictionary = new RmiClassDictionary(id);
+        dictionaries.put(id, dictionary);
+      }
+      dictionary.acknowledge(acknowledged);
+      return dictionary;
+    }
+  }
+
+  private static String key(ObjectStreamClass desc) {
+    return desc.getName() + ':' + desc.getSerialVersionUID();
+  }
+
+  @Synchronized
+  String getId() {
+    return id;
+  }
+
+  /** Returns the id of a descriptor that the other side has received, or {@code -1}. */
+  @Synchronized
+  int reference(ObjectStreamClass desc) {
+    Integer index = defined.get(key(desc));
+    return index != null && index < acknowledged ? index : -1;
+  }
+
+  /** Returns the id of a descriptor, assigning a new id if needed, or {@code -1} if full. */
+  @Synchronized
+  int define(ObjectStreamClass desc) {
+    Integer index = defined.get(key(desc));
+    if (index == null) {
+      if (defined.size() >= MAX_SIZE) {
+        return -1;
+      }
+      index = defined.size();
+      defined.put(key(desc), index);
+    }
+    return index;
+  }
+
+  /** Stores a descriptor that was defined by the other side. */
+  @Synchronized
+  void store(int index, ObjectStreamClass desc) throws UnknownDescriptorException {
+    if (index >= MAX_SIZE) {
+      throw new UnknownDescriptorException(index);
+    }
+    while (received.size() <= index) {
+      received.add(null);
+    }
+    received.set(index, desc);
+    while (receivedCount < received.size() && received.get(receivedCount) != null) {
+      receivedCount++;
+    }
+  }
+
+  /** Returns a descriptor that was defined by the other side. */
+  @Synchronized
+  ObjectStreamClass lookup(int index) throws UnknownDescriptorException {
+    ObjectStreamClass desc = index < received.size() ? received.get(index) : null;
+    if (desc == null) {
+      throw new UnknownDescriptorException(index);
+    }
+    return desc;
+  }
+
+  /** Returns the number of ids defined by the other side that were received without gaps. */
+  @Synchronized
+  int getReceivedCount() {
+    return receivedCount;
+  }
+
+  /** Records that the other side has received the given number of ids. */
+  @Synchronized
+  void acknowledge(int count) {
+    acknowledged = Math.max(acknowledged, Math.min(count, defined.size()));
+  }
+
+  /** Assigns an id to a method (on the server side), or returns {@code -1} if full. */
+  @Synchronized
+  int register(Method method) {
+    Integer index = methodIds.get(method);
+    if (index == null) {
+      if (methods.size() >= MAX_SIZE) {
+        return -1;
+      }
+      index = methods.size();
+      methods.add(method);
+      methodIds.put(method, index);
+    }
+    return index;
+  }
+
+  /** Returns the method with the given id (on the server side), or {@code null}. */
+  @Synchronized
+  Method getMethod(int index) {
+    return index >= 0 && index < methods.size() ? methods.get(index) : null;
+  }
+
+  /**
+   * Returns the id that the server assigned to a method (on the client side).
+   *
+   * @param method the invoked method
+   * @param view whether the method is invoked on the view, instead of a remote object
+   * @return the id of the method, {@code -1} if the server could not resolve it, or {@code null}
+   *         if no handshake was done for the method
+   */
+  @Synchronized
+  Integer getMethodId(Method method, boolean view) {
+    return (view ? viewMethodIds : remoteMethodIds).get(method);
+  }
+
+  /** Stores the ids that the server assigned to some methods (on the client side). */
+  @Synchronized
+  void putMethodIds(List<Method> methods, boolean view, List<?> ids) {
+    for (int i = 0; i < methods.size(); i++) {
+      (view ? viewMethodIds : remoteMethodIds).put(methods.get(i),
+          ((Number) ids.get(i)).intValue());
+    }
+  }
+
+  /** Discards all the descriptors and method ids, and assigns a new id to the dictionary. */
+  @Synchronized
+  void reset() {
+    id = UUID.randomUUID().toString();
+    defined.clear();
+    acknowledged = 0;
+    received.clear();
+    receivedCount = 0;
+    methods.clear();
+    methodIds.clear();
+    viewMethodIds.clear();
+    remoteMethodIds.clear();
+  }
+
+}
@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes the arguments and results of RMI invocations. The codec of a callable proxy is chosen
+ * with {@link UseRmiCodec}, and its {@linkplain #getId() id} is sent with each invocation, so
+ * that the server decodes the arguments with the same codec. The server encodes the result with
+ * the codec declared by the view (if any), or with the codec of the invocation.
+ *
+ * <p>
+ * Codecs other than the built-in ones are resolved by id on both sides, so they must be
+ * registered as a service ({@code META-INF/services/com.flowingcode.vaadin.testbench.rpc.RmiCodec})
+ * on the classpath of the test and of the application. Implementations must be stateless and have
+ * a public no-argument constructor.
+ *
+ * @author Javier Godoy / Flowing Code
+ * @see JavaRmiCodec
+ * @see CompactRmiCodec
+ */
+public interface RmiCodec {
+
+  /** Returns the identifier of this codec, which is sent with the invocations. */
+  String getId();
+
+  /**
+   * Writes the encoded form of a value.
+   *
+   * @param value the value to encode
+   * @param out the stream where the value is written
+   * @param context the context of the encoding
+   * @throws IOException if the value cannot be encoded
+   */
+  void encode(Object value, OutputStream out, Context context) throws IOException;
+
+  /**
+   * Reads a value that was encoded by this codec.
+   *
+   * @param in the stream where the value is read from
+   * @param context the context of the decoding
+   * @return the decoded value
+   * @throws IOException if the value cannot be decoded
+   * @throws ClassNotFoundException if the class of a decoded object cannot be found
+   */
+  Object decode(InputStream in, Context context) throws IOException, ClassNotFoundException;
+
+  /**
+   * Hooks that are provided by the caller of a codec. Codecs must call
+   * {@link #replaceObject(Object)} for each object before it's encoded, and
+   * {@link #resolveObject(Object)} for each object after it's decoded, so that remote references
+   * are replaced by their serialized forms.
+   */
+  interface Context {
+
+    /** Returns the object that is encoded in place of the given one. */
+    default Object replaceObject(Object obj) throws IOException {
+      return obj;
+    }
+
+    /** Returns the object that is decoded in place of the given one. */
+    default Object resolveObject(Object obj) throws IOException {
+      return obj;
+    }
+
+    /**
+     * Returns the class with the given name. Primitive types are given by their names, and array
+     * types by the name returned from {@link Class#getName()}.
+     */
+    Class<?> resolveClass(String name) throws ClassNotFoundException;
+
+  }
+
+}
@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.experimental.UtilityClass;
+import org.apache.commons.lang3.ClassUtils;
+
+/**
+ * Registry of the available {@link RmiCodec codecs}. The registry contains the built-in codecs,
+ * the codecs that are registered as a service, and the codecs that were declared with
+ * {@link UseRmiCodec} on an interface or view that was already used.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+@UtilityClass
+class RmiCodecs {
+
+  static final RmiCodec JAVA = new JavaRmiCodec();
+
+  private static final Map<String, RmiCodec> CODECS = new ConcurrentHashMap<>();
+
+  static {
+    register(JAVA);
+    register(new CompactRmiCodec());
+    for (RmiCodec codec : ServiceLoader.load(RmiCodec.class, RmiCodecs.class.getClassLoader())) {
+      register(codec);
+    }
+  }
+
+  private static final ClassValue<Optional<RmiCodec>> DECLARED =
+      new ClassValue<Optional<RmiCodec>>() {
+        @Override
+        protected Optional<RmiCodec> computeValue(Class<?> type) {
+          UseRmiCodec annotation = type.getAnnotation(UseRmiCodec.class);
+          if (annotation == null) {
+            annotation = ClassUtils.getAllInterfaces(type).stream()
+                .map(intf -> intf.getAnnotation(UseRmiCodec.class))
+                .filter(a -> a != null).findFirst().orElse(null);
+          }
+          return Optional.ofNullable(annotation).map(a -> getInstance(a.value()));
+        }
+      };
+
+  private static RmiCodec register(RmiCodec codec) {
+    RmiCodec previous = CODECS.putIfAbsent(codec.getId(), codec);
+    if (previous != null && previous.getClass() != codec.getClass()) {
+      throw new IllegalStateException(String.format("Codec id '%s' is used by %s and %s",
+          codec.getId(), previous.getClass().getName(), codec.getClass().getName()));
+    }
+    return previous != null ? previous : codec;
+  }
+
+  private static RmiCodec getInstance(Class<? extends RmiCodec> codecClass) {
+    for (RmiCodec codec : CODECS.values()) {
+      if (codec.getClass() == codecClass) {
+        return codec;
+      }
+    }
+    try {
+      return register(codecClass.getConstructor().newInstance());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalArgumentException("Cannot instantiate " + codecClass.getName(), e);
+    }
+  }
+
+  /** Returns the codec with the given id, or {@code null} if there is no such codec. */
+  static RmiCodec get(String id) {
+    return CODECS.get(id);
+  }
+
+  /**
+   * Returns the codec declared by the given type (or by any of its superclasses or interfaces),
+   * or {@code null} if no codec is declared.
+   */
+  static RmiCodec forType(Class<?> type) {
+    return DECLARED.get(type).orElse(null);
+  }
+
+}
@@ -40,6 +40,12 @@ class RmiConstants {
   /** Signature of the invoked method. */
   static final String RMI_METHOD_SIGNATURE = "methodSignature";
 
+  /** ID that the server assigned to the invoked method, instead of its name and signature. */
+  static final String RMI_METHOD_ID = "methodId";
+
+  /** Methods (of the view, or of the class given by {@link #RMI_CLASS_NAME}) to be assigned ids. */
+  static final String RMI_HANDSHAKE = "handshake";
+
   /** Arguments of the invoked method. */
   static final String RMI_METHOD_ARGUMENTS = "methodArguments";
 
@@ -49,7 +55,46 @@ class RmiConstants {
   /** Response data. */
   static final String RMI_RESPONSE_DATA = "data";
 
+  /** Response data that was transferred as JSON, instead of being serialized. */
+  static final String RMI_RESPONSE_JSON = "json";
+
+  /** Marker indicating that the client can receive the result as JSON. */
+  static final String RMI_JSON_RESULT = "jsonResult";
+
   /** Response error code. */
   static final String RMI_RESPONSE_ERROR = "error";
 
+  /**
+   * Summary of the exception of an error response. The serialized exception is staged, and it's
+   * transferred only if the client requests it.
+   */
+  static final String RMI_EXCEPTION = "exception";
+
+  /** ID of a staged response, which is transferred in chunks. */
+  static final String RMI_TRANSFER_ID = "transferId";
+
+  /** Total length in bytes of a staged response or upload. */
+  static final String RMI_TRANSFER_LENGTH = "length";
+
+  /** Offset of a chunk of a staged response or upload. */
+  static final String RMI_TRANSFER_OFFSET = "offset";
+
+  /** ID of the staged upload that contains the arguments of the invoked method. */
+  static final String RMI_UPLOAD_ID = "uploadId";
+
+  /** Marker indicating that the invocation drains the events of test-side listeners. */
+  static final String RMI_DRAIN_EVENTS = "drainEvents";
+
+  /**
+   * ID of the codec of the invocation arguments, or of the response data. If absent, the data is
+   * encoded with {@link JavaRmiCodec}.
+   */
+  static final String RMI_CODEC = "codec";
+
+  /** ID of the client dictionary of class descriptors (see {@link RmiClassDictionary}). */
+  static final String RMI_DICTIONARY_ID = "dictionary";
+
+  /** Number of class descriptors, defined by the other side, that were received without gaps. */
+  static final String RMI_DICTIONARY_ACK = "dictionaryAck";
+
 }
@@ -0,0 +1,284 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.ComponentUtil;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.VaadinServiceInitListener;
+import com.vaadin.flow.server.VaadinServletService;
+import com.vaadin.flow.server.VaadinSession;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import javax.servlet.ServletContext;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Server-side endpoint that receives RMI invocations directly from the test JVM, without going
+ * through WebDriver and the browser. The endpoint is optional: it must be registered as a
+ * {@link VaadinServiceInitListener} in the application under test, and it is used by the proxies
+ * created with {@link HasRpcSupport#createDirectCallableProxy(Class)}.
+ * <p>
+ * Requests are authenticated by the session cookie of the browser and by a token that is
+ * generated for each UI (and published to the browser when the UI is initialized). Each request
+ * may contain several invocations, which are dispatched in order to the view of the UI (see
+ * {@link RpcViewInitializer}), with the UI locked.
+ * <p>
+ * The view is the one registered by {@link RpcViewInitializer}, which must also be registered in
+ * the application under test.
+ * <p>
+ * If the test runs in the same JVM and class loader as the server, invocations are also accepted
+ * in-process, without HTTP. If the application was loaded by another class loader (e.g. when the
+ * test embeds the server), the in-process dispatcher is available as an attribute of the servlet
+ * context, and it must be registered with {@link #registerInProcessDispatcher(ServletContext)}.
+ * Arguments and results are still serialized, so that the test and the server don't share mutable
+ * state.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+@SuppressWarnings("serial")
+public class RmiDirectEndpoint implements VaadinServiceInitListener, RequestHandler {
+
+  /** Value of the {@code v-r} request parameter that identifies direct requests. */
+  static final String REQUEST_TYPE = "tbrpc";
+
+  /**
+   * Name of the servlet context attribute where the in-process dispatcher is published, as a
+   * {@code Function<String, String>} that maps a request to its response.
+   */
+  public static final String IN_PROCESS_DISPATCHER =
+      RmiDirectEndpoint.class.getName() + ".dispatcher";
+
+  private static final String TOKEN_KEY = RmiDirectEndpoint.class.getName() + ".token";
+
+  private final Map<String, UI> uis = new ConcurrentHashMap<>();
+
+  @Override
+  public void serviceInit(ServiceInitEvent event) {
+    event.addRequestHandler(this);
+    event.getSource().addUIInitListener(ev -> publishToken(ev.getUI()));
+
+    ServletContext context = getServletContext(event.getSource());
+    publishInProcess(context);
+    event.getSource().addServiceDestroyListener(ev -> unpublishInProcess(context));
+  }
+
+  private static ServletContext getServletContext(VaadinService service) {
+    if (service instanceof VaadinServletService) {
+      return ((VaadinServletService) service).getServlet().getServletContext();
+    }
+    return null;
+  }
+
+  /**
+   * Publishes the in-process dispatcher in the class loader of the endpoint and, if the context is
+   * not {@code null}, as an attribute of the servlet context.
+   */
+  void publishInProcess(ServletContext context) {
+    Function<String, String> dispatcher = this::dispatchInProcess;
+    InProcess.register(this, dispatcher);
+    if (context != null) {
+      context.setAttribute(IN_PROCESS_DISPATCHER, dispatcher);
+    }
+  }
+
+  void unpublishInProcess(ServletContext context) {
+    InProcess.unregister(this);
+    if (context != null) {
+      context.removeAttribute(IN_PROCESS_DISPATCHER);
+    }
+  }
+
+  /**
+   * Registers the in-process dispatcher of the application with the given servlet context, so that
+   * it can be used by the proxies created in the class loader of the caller. This is only needed
+   * if the test runs in the same JVM as the server, but the application was loaded by another
+   * class loader (e.g. when the test embeds the server).
+   *
+   * @param context the servlet context of the application under test
+   */
+  public static void registerInProcessDispatcher(ServletContext context) {
+    InProcess.register(context, request -> {
+      @SuppressWarnings("unchecked")
+      Function<String, String> dispatcher =
+          (Function<String, String>) context.getAttribute(IN_PROCESS_DISPATCHER);
+      return dispatcher != null ? dispatcher.apply(request) : null;
+    });
+  }
+
+  /** Publishes a new token for the given UI, and returns it. */
+  String publishToken(UI ui) {
+    String token = UUID.randomUUID().toString();
+    ComponentUtil.setData(ui, TOKEN_KEY, token);
+    uis.put(token, ui);
+    ui.addDetachListener(ev -> uis.remove(token));
+    ui.getPage().executeJs("window.__tbrpcDirect = {ui: $0, token: $1};", ui.getUIId(), token);
+    return token;
+  }
+
+  /**
+   * Dispatches a request that was received in-process, and returns its response, or {@code null}
+   * if the token is not valid.
+   */
+  private String dispatchInProcess(String request) {
+    JsonObject body = Json.parse(request);
+    UI ui = uis.get(body.getString("token"));
+    if (ui == null || ui.getUIId() != (int) body.getNumber("ui")) {
+      return null;
+    }
+    return dispatchAll(ui, body.getArray("calls")).toJson();
+  }
+
+  @Override
+  public boolean handleRequest(VaadinSession session, VaadinRequest request,
+      VaadinResponse response) throws IOException {
+    if (!REQUEST_TYPE.equals(request.getParameter("v-r"))) {
+      return false;
+    }
+
+    if (!"POST".equals(request.getMethod())) {
+      response.sendError(405, "Method not allowed");
+      return true;
+    }
+
+    JsonObject body;
+    UI ui;
+    try (BufferedReader reader = request.getReader()) {
+      body = Json.parse(reader.lines().collect(Collectors.joining("\n")));
+      ui = authenticate(session, (int) body.getNumber("ui"), body.getString("token"));
+    } catch (RuntimeException e) {
+      response.sendError(400, "Bad request");
+      return true;
+    }
+
+    if (ui == null) {
+      response.sendError(403, "Invalid UI or token");
+      return true;
+    }
+
+    JsonArray results = dispatchAll(ui, body.getArray("calls"));
+    byte[] data = results.toJson().getBytes(StandardCharsets.UTF_8);
+    response.setStatus(200);
+    response.setContentType("application/json; charset=UTF-8");
+    response.setContentLength(data.length);
+    try (OutputStream out = response.getOutputStream()) {
+      out.write(data);
+    }
+    return true;
+  }
+
+  /** Returns the UI with the given id, if the token matches the token of that UI. */
+  private static UI authenticate(VaadinSession session, int uiId, String token) {
+    if (session == null) {
+      return null;
+    }
+
+    session.lock();
+    try {
+      UI ui = session.getUIById(uiId);
+      return ui != null && token.equals(ComponentUtil.getData(ui, TOKEN_KEY)) ? ui : null;
+    } finally {
+      session.unlock();
+    }
+  }
+
+  private static JsonArray dispatchAll(UI ui, JsonArray invocations) {
+    JsonArray results = Json.createArray();
+    for (int i = 0; i < invocations.length(); i++) {
+      results.set(i, dispatch(ui, invocations.getObject(i)));
+    }
+    return results;
+  }
+
+  /**
+   * Dispatches an invocation to the view of the given UI, and returns either {@code {result}} or
+   * {@code {message}}, as the client-side dispatcher does.
+   */
+  private static JsonObject dispatch(UI ui, JsonObject invocation) {
+    JsonObject response = Json.createObject();
+    try {
+      ui.access(() -> {
+        Component view = RpcViewInitializer.getView(ui);
+        if (view instanceof RmiCallable) {
+          response.put("result", ((RmiCallable) view).$call(invocation));
+        } else {
+          response.put("message", "Could not find a view that implements RmiCallable");
+        }
+      }).get();
+    } catch (ExecutionException e) {
+      response.put("message", String.valueOf(e.getCause()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      response.put("message", "Interrupted");
+    }
+    return response;
+  }
+
+
+  /**
+   * The in-process dispatchers that were published in this class loader. There might be several
+   * of them, if the JVM runs more than one server, or if the same server is registered through
+   * several servlet contexts.
+   */
+  @UtilityClass
+  static class InProcess {
+
+    private final Map<Object, Function<String, String>> DISPATCHERS = new ConcurrentHashMap<>();
+
+    void register(Object owner, Function<String, String> dispatcher) {
+      DISPATCHERS.put(owner, dispatcher);
+    }
+
+    void unregister(Object owner) {
+      DISPATCHERS.remove(owner);
+    }
+
+    /**
+     * Dispatches a request, and returns the response of the first dispatcher that accepts it, or
+     * {@code null} if the token of the request is not accepted by any dispatcher.
+     */
+    String dispatch(String request) {
+      for (Function<String, String> dispatcher : DISPATCHERS.values()) {
+        String response = dispatcher.apply(request);
+        if (response != null) {
+          return response;
+        }
+      }
+      return null;
+    }
+  }
+
+}
@@ -24,27 +24,49 @@ enum RmiError {
   /** Attempt to pass an unregistered value as an object reference. */
   E_OBJECT_NOT_EXIST(false),
 
+  /**
+   * Attempt to fetch a chunk of a response that is not staged (or was already transferred), or to
+   * invoke a method with arguments from an upload that is not staged (or is incomplete).
+   */
+  E_TRANSFER_NOT_EXIST(false),
+
+  /** The codec of the invocation is not available on the server (see {@link RmiCodec}). */
+  E_CODEC_NOT_EXIST(false),
+
+  /**
+   * The invocation refers to a dictionary of class descriptors that is not held by the server. The
+   * invocation was not executed, and it can be dispatched again with a new dictionary.
+   */
+  E_DICTIONARY_NOT_EXIST(false),
+
   /**
    * An exception ocurred when executing the remote method.
-   * The response data includes the serialized form of the thrown exception.
+   * The response includes a summary of the thrown exception.
    */
   E_INVOKE(true),
 
   /**
    * Response error: an exception ocurred when serializing the response.
-   * The response data includes the serialized form of the thrown exception.
+   * The response includes a summary of the thrown exception.
    */
   E_MARSHAL(true),
 
   /**
    * Response error: an exception ocurred when deserializing the request arguments.
-   * The response data includes the serialized form of the thrown exception.
+   * The response includes a summary of the thrown exception.
    */
   E_UNMARSHAL(true),
 
+  /**
+   * Response error: the request arguments exceed the limits of deserialization, or they contain a
+   * class that is not allowed (see {@link RmiInputLimits}). The invoked method was not executed.
+   * The response includes a summary of the thrown exception.
+   */
+  E_INPUT_REJECTED(true),
+
   /**
    * Response error: unlisted exception.
-   * The response data includes the serialized form of the thrown exception.
+   * The response includes a summary of the thrown exception.
    */
   E_UNKNOWN(true);
 
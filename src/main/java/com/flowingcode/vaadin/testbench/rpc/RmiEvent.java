@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * An invocation of a test-side listener, which was buffered on the server until it's drained.
+ *
+ * @author Javier Godoy / Flowing Code
+ * @see RmiEventSupport
+ */
+@RequiredArgsConstructor
+@ToString
+@Getter
+final class RmiEvent implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final @NonNull String listenerId;
+  private final @NonNull String methodName;
+  private final @NonNull String[] signature;
+  private final Object[] arguments;
+
+  RmiEvent(String listenerId, Method method, Object[] arguments) {
+    this(listenerId, method.getName(),
+        Arrays.stream(method.getParameterTypes()).map(Class::getName).toArray(String[]::new),
+        arguments);
+  }
+
+  /** Invokes the method of the event on the given listener. */
+  void deliver(Object listener) throws ReflectiveOperationException {
+    for (Method method : listener.getClass().getMethods()) {
+      if (method.getName().equals(methodName) && matches(method.getParameterTypes())) {
+        method.setAccessible(true);
+        method.invoke(listener, arguments);
+        return;
+      }
+    }
+    throw new NoSuchMethodException(methodName + Arrays.toString(signature));
+  }
+
+  private boolean matches(Class<?>[] parameterTypes) {
+    if (parameterTypes.length != signature.length) {
+      return false;
+    }
+    for (int i = 0; i < signature.length; i++) {
+      if (!parameterTypes[i].getName().equals(signature[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
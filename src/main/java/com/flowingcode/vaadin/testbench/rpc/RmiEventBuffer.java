@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.ComponentUtil;
+import java.util.ArrayList;
+import lombok.Synchronized;
+
+/**
+ * Buffers the invocations of test-side listeners until the client drains them. Listeners may be
+ * invoked from any thread.
+ *
+ * @author Javier Godoy / Flowing Code
+ * @see RmiEventSupport
+ */
+class RmiEventBuffer {
+
+  private ArrayList<RmiEvent> events = new ArrayList<>();
+
+  private RmiEventBuffer() {}
+
+  @Synchronized
+  final void add(RmiEvent event) {
+    events.add(event);
+  }
+
+  /** Returns the buffered events, and clears the buffer. */
+  @Synchronized
+  final ArrayList<RmiEvent> drain() {
+    ArrayList<RmiEvent> drained = events;
+    events = new ArrayList<>();
+    return drained;
+  }
+
+  /**
+   * Returns the event buffer of the given component, creating it if needed.
+   *
+   * @param c the GUI component associated with the buffer
+   * @return the associated RmiEventBuffer instance
+   */
+  static RmiEventBuffer getInstance(Component c) {
+    RmiEventBuffer buffer = ComponentUtil.getData(c, RmiEventBuffer.class);
+    if (buffer == null) {
+      buffer = new RmiEventBuffer();
+      ComponentUtil.setData(c, RmiEventBuffer.class, buffer);
+    }
+    return buffer;
+  }
+
+}
@@ -0,0 +1,44 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+/**
+ * Interface for callable proxies that receive the events of test-side listeners. A listener is an
+ * object that implements an interface that extends {@link RmiRemote}, which is passed as an
+ * argument to an RMI method. On the server, the listener is replaced by a proxy whose invocations
+ * are buffered, and they are delivered to the test-side listener when {@link #drainEvents()} is
+ * called. The methods of a listener interface must return {@code void}.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+public interface RmiEventSupport {
+
+  /**
+   * Delivers the buffered events to their listeners, in the order they were fired. The events
+   * are transferred in a single round trip.
+   *
+   * @return the number of events that were delivered (the events of listeners that were
+   *         unexported are discarded)
+   */
+  default int drainEvents() {
+    throw new UnsupportedOperationException();
+  }
+
+}
@@ -0,0 +1,277 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2023 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Limits that apply when RMI arguments and results are decoded, on both sides, so that a single
+ * mistaken value cannot exhaust the memory of the server. The limits are configured through
+ * system properties, with the prefix {@code com.flowingcode.vaadin.testbench.rpc.RmiInputLimits.}:
+ *
+ * <ul>
+ * <li>{@code maxBytes}: the length of the encoded value (default 64 MiB).
+ * <li>{@code maxDepth}: the depth of the object graph (default 512).
+ * <li>{@code maxRefs}: the number of objects and references in the graph (default 1048576).
+ * <li>{@code maxArray}: the length of each array (default 8388608).
+ * <li>{@code allowList}: a list of class name patterns, separated by {@code ;}. A pattern ending
+ * in {@code .*} matches the classes of a package, a pattern ending in {@code .**} matches the
+ * classes of a package and its subpackages, and a pattern ending in {@code *} matches any class
+ * name with that prefix. If the list is not set, all the classes are allowed. Primitive types and
+ * the classes of this library are always allowed.
+ * </ul>
+ *
+ * <p>
+ * With Java serialization, the limits are enforced by an input filter ({@code ObjectInputFilter},
+ * or {@code sun.misc.ObjectInputFilter} in Java 8), which runs after the process-wide filter (if
+ * any). A value that exceeds the limits is rejected with {@link RmiError#E_INPUT_REJECTED}.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+@UtilityClass
+class RmiInputLimits {
+
+  private static final String PREFIX = RmiInputLimits.class.getName() + ".";
+
+  static final long MAX_BYTES = Long.getLong(PREFIX + "maxBytes", 1L << 26);
+
+  static final long MAX_DEPTH = Long.getLong(PREFIX + "maxDepth", 512);
+
+  static final long MAX_REFS = Long.getLong(PREFIX + "maxRefs", 1L << 20);
+
+  static final long MAX_ARRAY = Long.getLong(PREFIX + "maxArray", 1L << 23);
+
+  private static final List<String> ALLOW_LIST = parse(System.getProperty(PREFIX + "allowList"));
+
+  /** Thrown when a value exceeds the limits, or it contains a class that is not allowed. */
+  @SuppressWarnings("serial")
+  static final class RejectedException extends InvalidClassException {
+    RejectedException(String reason) {
+      super(reason);
+    }
+  }
+
+  private static List<String> parse(String allowList) {
+    if (allowList == null) {
+      return null;
+    }
+    return Collections.unmodifiableList(Arrays.asList(allowList.trim().split("\\s*;\\s*")));
+  }
+
+  /** Returns whether a class name matches a pattern of the allow-list. */
+  static boolean matches(String pattern, String className) {
+    if (pattern.endsWith(".**")) {
+      return className.startsWith(pattern.substring(0, pattern.length() - 2));
+    } else if (pattern.endsWith(".*")) {
+      String packageName = pattern.substring(0, pattern.length() - 1);
+      return className.startsWith(packageName)
+          && className.indexOf('.', packageName.length()) < 0;
+    } else if (pattern.endsWith("*")) {
+      return className.startsWith(pattern.substring(0, pattern.length() - 1));
+    } else {
+      return className.equals(pattern);
+    }
+  }
+
+  /** Returns whether the allow-list admits the given class. */
+  static boolean isAllowed(Class<?> type) {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    if (ALLOW_LIST == null || type.isPrimitive()
+        || type.getName().startsWith(RmiInputLimits.class.getPackage().getName() + ".")) {
+      return true;
+    }
+    String className = type.getName();
+    return ALLOW_LIST.stream().anyMatch(pattern -> matches(pattern, className));
+  }
+
+  /**
+   * Checks a value against the limits, and returns the reason why it's rejected, or {@code null}
+   * if it's accepted.
+   */
+  static String check(Class<?> type, long arrayLength, long depth, long references,
+      long streamBytes) {
+    if (type != null && !isAllowed(type)) {
+      return "Class " + type.getName() + " is not allowed";
+    } else if (arrayLength > MAX_ARRAY) {
+      return "Array length " + arrayLength + " exceeds " + MAX_ARRAY;
+    } else if (depth > MAX_DEPTH) {
+      return "Depth " + depth + " exceeds " + MAX_DEPTH;
+    } else if (references > MAX_REFS) {
+      return "Number of references " + references + " exceeds " + MAX_REFS;
+    } else if (streamBytes > MAX_BYTES) {
+      return "Length " + streamBytes + " exceeds " + MAX_BYTES;
+    } else {
+      return null;
+    }
+  }
+
+  /** Throws {@link RejectedException} if a value exceeds the limits. */
+  static void enforce(Class<?> type, long arrayLength, long depth, long references,
+      long streamBytes) throws RejectedException {
+    String reason = check(type, arrayLength, depth, references, streamBytes);
+    if (reason != null) {
+      throw new RejectedException(reason);
+    }
+  }
+
+  // ObjectInputFilter is resolved reflectively, since it's not available in Java 8 (where
+  // sun.misc.ObjectInputFilter is used instead)
+
+  private static final Class<?> FILTER_TYPE;
+  private static final Method GET_FILTER;
+  private static final Method SET_FILTER;
+  private static final Method CHECK_INPUT;
+  private static final Method[] FILTER_INFO;
+  private static final Object UNDECIDED;
+  private static final Object REJECTED;
+
+  static {
+    Class<?> filterType = null;
+    Method getFilter = null;
+    Method setFilter = null;
+    Method checkInput = null;
+    Method[] filterInfo = null;
+    Object undecided = null;
+    Object rejected = null;
+    try {
+      Class<?> config;
+      try {
+        filterType = Class.forName("java.io.ObjectInputFilter");
+        config = ObjectInputStream.class;
+        getFilter = config.getMethod("getObjectInputFilter");
+        setFilter = config.getMethod("setObjectInputFilter", filterType);
+      } catch (ClassNotFoundException e) {
+        filterType = Class.forName("sun.misc.ObjectInputFilter");
+        config = Class.forName("sun.misc.ObjectInputFilter$Config");
+        getFilter = config.getMethod("getObjectInputFilter", ObjectInputStream.class);
+        setFilter = config.getMethod("setObjectInputFilter", ObjectInputStream.class, filterType);
+      }
+
+      Class<?> infoType = Class.forName(filterType.getName() + "$FilterInfo");
+      checkInput = filterType.getMethod("checkInput", infoType);
+      filterInfo = new Method[] {infoType.getMethod("serialClass"),
+          infoType.getMethod("arrayLength"), infoType.getMethod("depth"),
+          infoType.getMethod("references"), infoType.getMethod("streamBytes")};
+
+      Class<?> statusType = Class.forName(filterType.getName() + "$Status");
+      undecided = statusType.getField("UNDECIDED").get(null);
+      rejected = statusType.getField("REJECTED").get(null);
+    } catch (ReflectiveOperationException e) {
+      // input filters are not supported
+      filterType = null;
+    }
+
+    FILTER_TYPE = filterType;
+    GET_FILTER = getFilter;
+    SET_FILTER = setFilter;
+    CHECK_INPUT = checkInput;
+    FILTER_INFO = filterInfo;
+    UNDECIDED = undecided;
+    REJECTED = rejected;
+  }
+
+  /**
+   * The filter of a stream. The reason of the first rejection is kept, so that it's reported
+   * instead of the generic exception that the stream throws.
+   */
+  static final class Filter {
+    private String rejection;
+
+    /** Throws {@link RejectedException} if the filter rejected a value. */
+    void rethrow(InvalidClassException e) throws RejectedException {
+      if (rejection != null) {
+        RejectedException rejected = new RejectedException(rejection);
+        rejected.initCause(e);
+        throw rejected;
+      }
+    }
+  }
+
+  /**
+   * Installs the limits as the input filter of a stream. The limits are not enforced if input
+   * filters are not supported by the runtime.
+   *
+   * @param ois the stream, before any object is read from it
+   * @return the installed filter
+   */
+  static Filter install(ObjectInputStream ois) throws IOException {
+    Filter filter = new Filter();
+    if (FILTER_TYPE == null) {
+      return filter;
+    }
+
+    try {
+      Object previous = invoke(GET_FILTER, ois);
+      Object proxy = Proxy.newProxyInstance(RmiInputLimits.class.getClassLoader(),
+          new Class<?>[] {FILTER_TYPE}, (p, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+              return method.invoke(filter, args);
+            }
+
+            Object info = args[0];
+            Object status = previous != null ? CHECK_INPUT.invoke(previous, info) : UNDECIDED;
+            if (status == REJECTED) {
+              return status;
+            }
+
+            String reason = check((Class<?>) FILTER_INFO[0].invoke(info),
+                (Long) FILTER_INFO[1].invoke(info), (Long) FILTER_INFO[2].invoke(info),
+                (Long) FILTER_INFO[3].invoke(info), (Long) FILTER_INFO[4].invoke(info));
+            if (reason != null) {
+              if (filter.rejection == null) {
+                filter.rejection = reason;
+              }
+              return REJECTED;
+            }
+            return status;
+          });
+      invoke(SET_FILTER, ois, proxy);
+    } catch (IllegalAccessException e) {
+      throw new IOException(e);
+    } catch (InvocationTargetException e) {
+      throw new IOException(e.getCause());
+    }
+    return filter;
+  }
+
+  private static Object invoke(Method method, ObjectInputStream ois, Object... args)
+      throws IllegalAccessException, InvocationTargetException {
+    if (Modifier.isStatic(method.getModifiers())) {
+      Object[] arguments = new Object[args.length + 1];
+      arguments[0] = ois;
+      System.arraycopy(args, 0, arguments, 1, args.length);
+      return method.invoke(null, arguments);
+    }
+    return method.invoke(ois, args);
+  }
+
+}
@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.stream.Stream;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Serialized form of a test-side listener (an object that implements {@link RmiRemote} and is not
+ * a stub), in client-to-server communication. On the server, it's replaced by a proxy that buffers
+ * its invocations (see {@link RmiEventSupport}). When the proxy is sent back to the client, it's
+ * replaced again by the original listener.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+@ToString
+@Getter
+@RequiredArgsConstructor
+final class RmiListenerReplacement implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final @NonNull Class<?>[] interfaces;
+  private final @NonNull String listenerId;
+
+  /** Exports a test-side listener, and returns its serialized form. */
+  static RmiListenerReplacement export(HasRpcSupport rpc, RmiRemote listener) {
+    Class<?>[] interfaces = Stream.of(listener.getClass().getInterfaces())
+        .filter(RmiRemote.class::isAssignableFrom).toArray(Class<?>[]::new);
+    return new RmiListenerReplacement(interfaces,
+        Registry.getInstance(rpc, true).export(listener));
+  }
+
+  /** Returns the test-side listener. */
+  Object getListener(HasRpcSupport rpc) {
+    return lookup(rpc, listenerId);
+  }
+
+  /**
+   * Returns the test-side listener with the given id.
+   *
+   * @throws RpcException if a listener with the given id was not exported
+   */
+  static Object lookup(HasRpcSupport rpc, String listenerId) {
+    return Optional.ofNullable(find(rpc, listenerId))
+        .orElseThrow(() -> new RpcException("No listener with id " + listenerId));
+  }
+
+  /**
+   * Returns the test-side listener with the given id, or {@code null} if it was not exported (or
+   * if it was unexported).
+   */
+  static Object find(HasRpcSupport rpc, String listenerId) {
+    Registry registry = Registry.getInstance(rpc, false);
+    return registry != null ? registry.find(listenerId) : null;
+  }
+
+  /** Unexports a test-side listener. */
+  static void unexport(HasRpcSupport rpc, RmiRemote listener) {
+    Registry.unexport(rpc, listener);
+  }
+
+  /** Unexports all the test-side listeners that were exported by the given test. */
+  static void unexportAll(HasRpcSupport rpc) {
+    Registry.unexportAll(rpc);
+  }
+
+  /** Creates a server-side proxy that buffers the invocations of the listener. */
+  Object createProxy(RmiEventBuffer buffer) {
+    return Proxy.newProxyInstance(interfaces[0].getClassLoader(), interfaces,
+        new ProxyHandler(this, buffer));
+  }
+
+  /**
+   * Returns the serialized form of a server-side proxy, or {@code null} if the object is not a
+   * listener proxy.
+   */
+  static RmiListenerReplacement of(Object obj) {
+    if (obj != null && Proxy.isProxyClass(obj.getClass())) {
+      InvocationHandler handler = Proxy.getInvocationHandler(obj);
+      if (handler instanceof ProxyHandler) {
+        return ((ProxyHandler) handler).replacement;
+      }
+    }
+    return null;
+  }
+
+  @RequiredArgsConstructor
+  private static final class ProxyHandler implements InvocationHandler {
+
+    private final RmiListenerReplacement replacement;
+    private final RmiEventBuffer buffer;
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (method.getDeclaringClass() == Object.class) {
+        switch (method.getName()) {
+          case "equals":
+            RmiListenerReplacement other = of(args[0]);
+            return other != null && other.listenerId.equals(replacement.listenerId);
+          case "hashCode":
+            return replacement.listenerId.hashCode();
+          default:
+            return replacement.toString();
+        }
+      }
+
+      if (method.getReturnType() != Void.TYPE) {
+        throw new UnsupportedOperationException(
+            "Methods of test-side listeners must return void: " + method);
+      }
+
+      buffer.add(new RmiEvent(replacement.listenerId, method, args));
+      return null;
+    }
+  }
+
+  /**
+   * Registry of the listeners that were exported by a test. Listeners usually refer to their test,
+   * so the registry of a test is held until all its listeners are unexported.
+   */
+  private static final class Registry {
+
+    private static final Map<HasRpcSupport, Registry> INSTANCES = new WeakHashMap<>();
+
+    private final Map<String, Object> idToListeners = new HashMap<>();
+
+    private final Map<Object, String> listenersToId = new IdentityHashMap<>();
+
+    static synchronized Registry getInstance(HasRpcSupport rpc, boolean create) {
+      return create ? INSTANCES.computeIfAbsent(rpc, __ -> new Registry()) : INSTANCES.get(rpc);
+    }
+
+    static synchronized void unexport(HasRpcSupport rpc, Object listener) {
+      Registry registry = INSTANCES.get(rpc);
+      if (registry != null) {
+        synchronized (registry) {
+          Optional.ofNullable(registry.listenersToId.remove(listener))
+              .ifPresent(registry.idToListeners::remove);
+          if (registry.idToListeners.isEmpty()) {
+            INSTANCES.remove(rpc);
+          }
+        }
+      }
+    }
+
+    static synchronized void unexportAll(HasRpcSupport rpc) {
+      INSTANCES.remove(rpc);
+    }
+
+    synchronized String export(Object listener) {
+      return listenersToId.computeIfAbsent(listener, __ -> {
+        String listenerId = UUID.randomUUID().toString();
+        idToListeners.put(listenerId, listener);
+        return listenerId;
+      });
+    }
+
+    synchronized Object find(String listenerId) {
+      return idToListeners.get(listenerId);
+    }
+  }
+
+}
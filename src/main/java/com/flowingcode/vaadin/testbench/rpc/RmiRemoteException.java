@@ -0,0 +1,96 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2023 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import java.util.concurrent.Callable;
+import lombok.Getter;
+
+/**
+ * Summary of an exception that was thrown on the server-side during a RMI invocation. The summary
+ * has the class name and message of the exception, and its stack trace trimmed to a few elements.
+ * The causes of the exception are summarized in the same way.
+ *
+ * <p>
+ * The server holds the serialized exception, with its complete stack trace and suppressed
+ * exceptions, which is transferred only if {@link #getRemoteException()} is called.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+@SuppressWarnings("serial")
+public final class RmiRemoteException extends RuntimeException {
+
+  /** The name of the class of the exception that was thrown on the server-side. */
+  @Getter
+  private final String remoteClassName;
+
+  private final transient Callable<Throwable> fetcher;
+
+  /** The number of causes between the outermost exception and this one. */
+  private final int depth;
+
+  RmiRemoteException(String remoteClassName, String message, StackTraceElement[] stackTrace,
+      RmiRemoteException cause, Callable<Throwable> fetcher, int depth) {
+    super(message, cause);
+    this.remoteClassName = remoteClassName;
+    this.fetcher = fetcher;
+    this.depth = depth;
+    setStackTrace(stackTrace);
+  }
+
+  /**
+   * Returns the exception that was thrown on the server-side. The exception is transferred from the
+   * server, which only holds the most recent exceptions, and only until they have been transferred
+   * once.
+   *
+   * @return the deserialized exception
+   * @throws IllegalStateException if the server does not hold the exception anymore, or it could
+   *         not be transferred
+   */
+  public Throwable getRemoteException() {
+    if (fetcher == null) {
+      throw new IllegalStateException("The remote exception is not available");
+    }
+
+    Throwable t;
+    try {
+      t = fetcher.call();
+    } catch (Exception e) {
+      throw new IllegalStateException("The remote exception could not be transferred", e);
+    }
+
+    for (int i = 0; i < depth && t != null; i++) {
+      t = t.getCause();
+    }
+    return t;
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    // the stack trace is the one received from the server
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    String message = getLocalizedMessage();
+    return message != null ? remoteClassName + ": " + message : remoteClassName;
+  }
+
+}
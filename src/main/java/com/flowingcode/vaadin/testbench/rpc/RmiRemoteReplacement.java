@@ -22,6 +22,9 @@ package com.flowingcode.vaadin.testbench.rpc;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.stream.Stream;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.ToString;
 
@@ -31,6 +34,8 @@ import lombok.ToString;
  * @author Javier Godoy / Flowing Code
  */
 @ToString
+@Getter
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
 final class RmiRemoteReplacement implements Serializable {
 
   private static final long serialVersionUID = 1L;
@@ -45,12 +50,14 @@ final class RmiRemoteReplacement implements Serializable {
         .filter(RmiRemote.class::isAssignableFrom).toArray(Class<?>[]::new);
   }
 
-  Object createStub(@NonNull HasRpcSupport rpc, String sideChannelUrl) {
+  Object createStub(@NonNull HasRpcSupport rpc, RpcSideChannel.Lease sideChannel,
+      RmiCodec codec) {
     Class<?>[] interfaces = this.interfaces;
     interfaces = Arrays.copyOf(interfaces, interfaces.length + 1);
     interfaces[interfaces.length - 1] = RmiStub.class;
 
-    return HasRpcSupport$companion.createCallableProxy(rpc, interfaces, instanceId, sideChannelUrl);
+    return HasRpcSupport$companion.createCallableProxy(rpc, interfaces, instanceId, sideChannel,
+        codec);
   }
 
 }
@@ -0,0 +1,254 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.ComponentUtil;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import lombok.Synchronized;
+
+/**
+ * Holds the serialized form of large RMI responses and arguments, so that they can be transferred
+ * in chunks instead of a single JSON string.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+class RmiStagingArea {
+
+  /**
+   * Size of each chunk, in bytes. Since it is a multiple of 3, each chunk can be encoded in Base64
+   * (and decoded) independently of the others.
+   */
+  static final int CHUNK_SIZE = 3 << 18;
+
+  /** Maximum number of transfers held at any time. The oldest transfer is discarded first. */
+  private static final int MAX_TRANSFERS = 8;
+
+  /**
+   * Maximum number of bytes held by the uploads of a staging area. When a new upload would exceed
+   * it, the oldest uploads are discarded first.
+   */
+  static final long MAX_UPLOAD_BYTES = RmiInputLimits.MAX_BYTES;
+
+  @SuppressWarnings("serial")
+  private final Map<String, byte[]> transfers = new LinkedHashMap<String, byte[]>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+      return size() > MAX_TRANSFERS;
+    }
+  };
+
+  /**
+   * Serialized exceptions of error responses, which are transferred only if the client requests
+   * them. They are held apart from other transfers, so that they don't discard the responses that
+   * are being transferred.
+   */
+  @SuppressWarnings("serial")
+  private final Map<String, byte[]> exceptions = new LinkedHashMap<String, byte[]>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+      return size() > MAX_TRANSFERS;
+    }
+  };
+
+  @SuppressWarnings("serial")
+  private final Map<String, Upload> uploads = new LinkedHashMap<String, Upload>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Upload> eldest) {
+      if (size() > MAX_TRANSFERS) {
+        uploadBytes -= eldest.getValue().data.length;
+        return true;
+      }
+      return false;
+    }
+  };
+
+  private final long maxUploadBytes;
+
+  /** Number of bytes held by the uploads. */
+  private long uploadBytes;
+
+  private static final class Upload {
+    final byte[] data;
+    final BitSet received = new BitSet();
+
+    Upload(int length) {
+      data = new byte[length];
+    }
+
+    int chunks() {
+      return (data.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+  }
+
+  private RmiStagingArea() {
+    this(MAX_UPLOAD_BYTES);
+  }
+
+  RmiStagingArea(long maxUploadBytes) {
+    this.maxUploadBytes = maxUploadBytes;
+  }
+
+  /**
+   * Stages the given data and returns the id of the transfer.
+   *
+   * @param data the serialized response
+   * @return the transfer identifier
+   */
+  @Synchronized
+  final String stage(byte[] data) {
+    String transferId = UUID.randomUUID().toString();
+    transfers.put(transferId, data);
+    return transferId;
+  }
+
+  /**
+   * Stages the serialized form of an exception and returns the id of the transfer. Only the most
+   * recent exceptions are held.
+   *
+   * @param data the serialized exception
+   * @return the transfer identifier
+   */
+  @Synchronized
+  final String stageException(byte[] data) {
+    String transferId = UUID.randomUUID().toString();
+    exceptions.put(transferId, data);
+    return transferId;
+  }
+
+  /**
+   * Returns the Base64 encoding of the chunk that starts at the given offset. The transfer is
+   * discarded after its last chunk has been returned.
+   *
+   * @param transferId the transfer identifier
+   * @param offset the offset of the chunk, which must be a multiple of 3
+   * @return the encoded chunk
+   * @throws RpcException if a transfer with the given id is not staged
+   * @throws IllegalArgumentException if the offset is not valid
+   */
+  @Synchronized
+  final String getChunk(String transferId, int offset) {
+    Map<String, byte[]> staged = transfers.containsKey(transferId) ? transfers : exceptions;
+    byte[] data = staged.get(transferId);
+    if (data == null) {
+      throw new RpcException("No transfer with id " + transferId);
+    }
+    if (offset < 0 || offset >= data.length || offset % 3 != 0) {
+      throw new IllegalArgumentException("Invalid offset " + offset);
+    }
+
+    int length = Math.min(CHUNK_SIZE, data.length - offset);
+    if (offset + length == data.length) {
+      staged.remove(transferId);
+    }
+    return encode(data, offset, length);
+  }
+
+  /**
+   * Receives a chunk of an upload. Receiving the same chunk more than once has no effect, so that a
+   * failed chunk can be sent again.
+   *
+   * @param uploadId the upload identifier
+   * @param length the total length of the upload
+   * @param offset the offset of the chunk, which must be a multiple of {@link #CHUNK_SIZE}
+   * @param chunk the contents of the chunk
+   * @throws IllegalArgumentException if the length, offset or chunk size are not valid, or if
+   *         the length exceeds the bytes that can be held by the uploads
+   */
+  @Synchronized
+  final void receive(String uploadId, int length, int offset, byte[] chunk) {
+    if (length <= 0 || offset < 0 || offset >= length || offset % CHUNK_SIZE != 0
+        || chunk.length != Math.min(CHUNK_SIZE, length - offset)) {
+      throw new IllegalArgumentException(
+          String.format("Invalid chunk (length %d, offset %d, size %d)", length, offset,
+              chunk.length));
+    }
+
+    Upload upload = uploads.get(uploadId);
+    if (upload == null) {
+      reserve(length);
+      upload = new Upload(length);
+      uploads.put(uploadId, upload);
+    } else if (upload.data.length != length) {
+      throw new IllegalArgumentException("Invalid length " + length);
+    }
+
+    int index = offset / CHUNK_SIZE;
+    if (!upload.received.get(index)) {
+      System.arraycopy(chunk, 0, upload.data, offset, chunk.length);
+      upload.received.set(index);
+    }
+  }
+
+  /**
+   * Returns the contents of a complete upload, and discards it.
+   *
+   * @param uploadId the upload identifier
+   * @return the uploaded data
+   * @throws RpcException if an upload with the given id is not staged or it is incomplete
+   */
+  @Synchronized
+  final byte[] takeUpload(String uploadId) {
+    Upload upload = uploads.get(uploadId);
+    if (upload == null || upload.received.cardinality() != upload.chunks()) {
+      throw new RpcException("No complete upload with id " + uploadId);
+    }
+    uploads.remove(uploadId);
+    uploadBytes -= upload.data.length;
+    return upload.data;
+  }
+
+  /** Discards the oldest uploads until a new upload of the given length can be held. */
+  private void reserve(int length) {
+    if (length > maxUploadBytes) {
+      throw new IllegalArgumentException("Length " + length + " exceeds " + maxUploadBytes);
+    }
+    Iterator<Upload> it = uploads.values().iterator();
+    while (uploadBytes + length > maxUploadBytes) {
+      uploadBytes -= it.next().data.length;
+      it.remove();
+    }
+    uploadBytes += length;
+  }
+
+  static String encode(byte[] data, int offset, int length) {
+    return RmiBuffer.encode(data, offset, length);
+  }
+
+  /**
+   * Returns the staging area of the given component, creating it if needed.
+   *
+   * @param c the GUI component associated with the staging area
+   * @return the associated RmiStagingArea instance
+   */
+  static RmiStagingArea getInstance(Component c) {
+    RmiStagingArea staging = ComponentUtil.getData(c, RmiStagingArea.class);
+    if (staging == null) {
+      staging = new RmiStagingArea();
+      ComponentUtil.setData(c, RmiStagingArea.class, staging);
+    }
+    return staging;
+  }
+
+}
@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import com.flowingcode.vaadin.testbench.rpc.RpcInvocationHandler.ClientCall;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.RequiredArgsConstructor;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Dispatches asynchronous calls. Calls are queued without blocking the caller, and a dispatcher
+ * thread fires all the queued calls in a single round trip and completes their futures as soon as
+ * the results arrive. Calls that are queued while a round trip is in progress are fired together
+ * in the next one. Since the futures are completed by the dispatcher thread, they can be awaited,
+ * combined (e.g. with {@code CompletableFuture.allOf}) or polled with {@code isDone}.
+ * <p>
+ * The dispatcher thread uses the driver while the test thread might also be using it. Since
+ * WebDriver is not thread-safe, the driver is locked during each call (see
+ * {@link RpcBootstrap#execute(WebDriver, String, Object...)}).
+ *
+ * @author Javier Godoy / Flowing Code
+ * @see HasRpcSupport#createAsyncCallableProxy(Class)
+ */
+final class RpcAsyncDispatcher {
+
+  private static final Map<WebDriver, RpcAsyncDispatcher> INSTANCES = new WeakHashMap<>();
+
+  /** Threads that drain the queues of the dispatchers. Idle threads are discarded. */
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "tbrpc-async-dispatcher");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /** The driver is weakly referenced, so that it's not retained by {@link #INSTANCES}. */
+  private final WeakReference<WebDriver> driver;
+
+  private final List<QueuedCall> queue = new ArrayList<>();
+
+  /** Whether a dispatcher thread is draining the queue. */
+  private boolean draining;
+
+  private RpcAsyncDispatcher(WebDriver driver) {
+    this.driver = new WeakReference<>(driver);
+  }
+
+  static synchronized RpcAsyncDispatcher getInstance(WebDriver driver) {
+    return INSTANCES.computeIfAbsent(driver, RpcAsyncDispatcher::new);
+  }
+
+  /** Queues a call and returns a future that completes with its result. */
+  synchronized CompletableFuture<Object> submit(RpcInvocationHandler handler,
+      Method method, Object[] args, ClientCall call) {
+    QueuedCall queued = new QueuedCall(handler, method, args, call);
+    queue.add(queued);
+    if (!draining) {
+      draining = true;
+      EXECUTOR.execute(this::drain);
+    }
+    return queued.future;
+  }
+
+  /** Dispatches the queued calls, until the queue is empty. */
+  private void drain() {
+    List<QueuedCall> calls = null;
+    boolean drained = false;
+    try {
+      while ((calls = poll()) != null) {
+        dispatch(calls);
+      }
+      drained = true;
+    } finally {
+      if (!drained) {
+        abort(calls);
+      }
+    }
+  }
+
+  /** Takes the queued calls, or returns {@code null} (and stops draining) if there are none. */
+  private synchronized List<QueuedCall> poll() {
+    if (queue.isEmpty()) {
+      draining = false;
+      return null;
+    }
+    List<QueuedCall> calls = new ArrayList<>(queue);
+    queue.clear();
+    return calls;
+  }
+
+  /**
+   * Fails the calls that were being dispatched when the dispatcher thread failed, and the calls
+   * that are still queued, so that they don't wait forever.
+   */
+  private void abort(List<QueuedCall> calls) {
+    List<QueuedCall> failed = new ArrayList<>();
+    synchronized (this) {
+      draining = false;
+      failed.addAll(queue);
+      queue.clear();
+    }
+    if (calls != null) {
+      failed.addAll(0, calls);
+    }
+    RpcException e = new RpcException("The asynchronous dispatcher failed");
+    failed.forEach(queued -> queued.fail(e));
+  }
+
+  private void dispatch(List<QueuedCall> calls) {
+    List<Object> batch = new ArrayList<>(calls.size());
+    for (QueuedCall queued : calls) {
+      batch.add(Arrays.asList(queued.call.callable, queued.call.arguments));
+    }
+
+    List<?> results;
+    try {
+      WebDriver driver = this.driver.get();
+      if (driver == null) {
+        throw new RpcException("The driver was discarded");
+      }
+      @SuppressWarnings("unchecked")
+      Map<String, Object> response =
+          (Map<String, Object>) RpcBootstrap.execute(driver, "batch", null, batch);
+      results = (List<?>) response.get("results");
+      if (results == null || results.size() != calls.size()) {
+        throw new RpcException("Unexpected response to a batch of asynchronous calls");
+      }
+    } catch (RuntimeException e) {
+      calls.forEach(queued -> queued.fail(e));
+      return;
+    }
+
+    for (int i = 0; i < calls.size(); i++) {
+      calls.get(i).resolve(results.get(i));
+    }
+  }
+
+  @RequiredArgsConstructor
+  private static final class QueuedCall {
+
+    private final RpcInvocationHandler handler;
+    private final Method method;
+    private final Object[] args;
+    private final ClientCall call;
+    private final CompletableFuture<Object> future = new CompletableFuture<>();
+
+    private void resolve(Object response) {
+      try {
+        future.complete(handler.complete(method, args, response));
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    }
+
+    /** Fails the call, unless it was already completed. */
+    private void fail(RuntimeException e) {
+      if (!future.isDone()) {
+        future.completeExceptionally(RpcInvocationHandler.wrap(method, args, e));
+      }
+    }
+
+  }
+
+}
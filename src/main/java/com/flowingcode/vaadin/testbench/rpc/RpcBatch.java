@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import com.flowingcode.vaadin.testbench.rpc.RpcInvocationHandler.ClientCall;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Records the calls made on callable proxies, in order to dispatch them in a single round trip.
+ *
+ * @author Javier Godoy / Flowing Code
+ * @see HasRpcSupport#batch(Runnable)
+ */
+@RequiredArgsConstructor
+final class RpcBatch {
+
+  private static final ThreadLocal<RpcBatch> CURRENT = new ThreadLocal<>();
+
+  private final HasRpcSupport rpc;
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  @RequiredArgsConstructor
+  private static final class Entry {
+    final RpcInvocationHandler handler;
+    final Method method;
+    final Object[] args;
+    final ClientCall call;
+  }
+
+  /**
+   * Returns the batch that is being recorded by the current thread for the given instance, or
+   * {@code null} if there is no such batch.
+   */
+  static RpcBatch current(HasRpcSupport rpc) {
+    RpcBatch batch = CURRENT.get();
+    return batch != null && batch.rpc == rpc ? batch : null;
+  }
+
+  void add(RpcInvocationHandler handler, Method method, Object[] args,
+      ClientCall call) {
+    entries.add(new Entry(handler, method, args, call));
+  }
+
+  static List<Object> execute(HasRpcSupport rpc, Runnable calls) {
+    if (CURRENT.get() != null) {
+      throw new IllegalStateException("Nested batches are not supported");
+    }
+
+    RpcBatch batch = new RpcBatch(rpc);
+    CURRENT.set(batch);
+    try {
+      calls.run();
+    } finally {
+      CURRENT.remove();
+    }
+
+    return batch.flush();
+  }
+
+  private List<Object> flush() {
+    List<Object> results = new ArrayList<>(entries.size());
+    RpcException failure = null;
+
+    // consecutive calls dispatched from the same window are sent together
+    for (int start = 0, end; start < entries.size(); start = end) {
+      RpcInvocationHandler handler = entries.get(start).handler;
+      for (end = start + 1; end < entries.size(); end++) {
+        if (!handler.isSameChannel(entries.get(end).handler)) {
+          break;
+        }
+      }
+
+      List<Entry> group = entries.subList(start, end);
+      List<?> responses;
+      Exception groupFailure = null;
+      try {
+        responses = handler.callAll(group.stream().map(e -> e.call).collect(Collectors.toList()));
+      } catch (Exception e) {
+        responses = null;
+        groupFailure = e;
+      }
+
+      for (int i = 0; i < group.size(); i++) {
+        Entry entry = group.get(i);
+        try {
+          if (groupFailure != null) {
+            throw RpcInvocationHandler.wrap(entry.method, entry.args, groupFailure);
+          }
+          results.add(entry.handler.complete(entry.method, entry.args, responses.get(i)));
+        } catch (RpcException e) {
+          results.add(null);
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+    return results;
+  }
+
+}
@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import lombok.experimental.UtilityClass;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Browser-side dispatcher for RPC calls. The dispatcher is installed once per document (as
+ * {@code window.__tbrpc}), so that each call only transfers the name of the dispatcher function
+ * and its arguments. If the document is reloaded or the browser navigates away, the next call
+ * reports that the dispatcher is missing, and it's retried together with the installation script.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+@UtilityClass
+class RpcBootstrap {
+
+  /** Script that installs the dispatcher in the current document. */
+  private static final String INSTALL_SCRIPT = "window.__tbrpc = {"
+
+      // the window of a side channel frame, or the main window
+      + "frame(name) {"
+      + "  if (!name) return window;"
+      + "  var f = document.getElementsByName(name)[0];"
+      + "  return f && f.contentWindow;"
+      + "},"
+
+      // view is registered by RpcViewInitializer when it's attached
+      + "view(win) {"
+      + "  var view = win.__tbrpcView;"
+      + "  if (view && view.isConnected && view.$server) return view;"
+      // otherwise, view is the (first) children of <body> that has a $server
+      + "  var doc = win.document;"
+      + "  if (!doc.body) return;"
+      + "  return win.__tbrpcView = [].slice.call(doc.body.children)" // V14
+      + "    .concat([].slice.call(doc.querySelectorAll('body > #outlet > * > *')))" // V22+
+      + "    .find(e=>e.$server);"
+      + "},"
+
+      // invoke a callable and resolve with either {result} or {message}
+      + "invoke(win, callable, args) {"
+      + "  var view = this.view(win);"
+      + "  if (!view) return Promise.resolve({message:'Could not find view. Check that the view contains @ClientCallable methods'});"
+      + "  var fn = view.$server[callable];"
+      + "  if (!fn) return Promise.resolve({message:'Method is not published. Check that the method exists and it is annotated with @ClientCallable'});"
+      + "  return fn.call(view.$server, ...args)"
+      + "    .then(result=>({result}))"
+      + "    .catch(e=>({message : e.message || ''}));"
+      + "},"
+
+      + "call(frame, callable, args, callback) {"
+      + "  var win = this.frame(frame);"
+      + "  if (!win) return callback({frame:false});"
+      + "  this.invoke(win, callable, args).then(callback);"
+      + "},"
+
+      // fire all the calls before waiting for their results
+      + "batch(frame, calls, callback) {"
+      + "  var win = this.frame(frame);"
+      + "  if (!win) return callback({frame:false});"
+      + "  Promise.all(calls.map(c=>this.invoke(win, c[0], c[1])))"
+      + "    .then(results=>callback({results}));"
+      + "},"
+
+      // open a side channel, without waiting until it's ready
+      + "windows: {},"
+
+      + "open(name, url, frame, callback) {"
+      + "  if (!frame) return this.windows[name] = window.open(url, name), callback(true);"
+      + "  var f = document.createElement('iframe');"
+      + "  f.name = name;"
+      + "  f.src = url;"
+      + "  f.setAttribute('aria-hidden', 'true');"
+      + "  f.style.cssText = 'position:absolute;width:0;height:0;border:0;visibility:hidden';"
+      + "  document.body.appendChild(f);"
+      + "  callback(true);"
+      + "},"
+
+      // side channels signal when their view is registered (see RpcViewInitializer)
+      + "signaled: {},"
+      + "waiting: {},"
+
+      + "signal(name) {"
+      + "  var callback = this.waiting[name];"
+      + "  delete this.waiting[name];"
+      + "  if (callback) callback(true); else this.signaled[name] = true;"
+      + "},"
+
+      // whether the view of a side channel was found (the document might still be loading)
+      + "ready(name) {"
+      + "  var win = this.frame(name) || this.windows[name];"
+      + "  try { return !!(win && this.view(win)); } catch (e) { return false; }"
+      + "},"
+
+      // wait until the view of a side channel can receive calls, either because it signaled or
+      // because it was found by polling (if RpcViewInitializer is not registered)
+      + "await(name, timeout, callback) {"
+      + "  var deadline = Date.now() + timeout;"
+      + "  var poll = ()=>{"
+      + "    if (this.waiting[name] !== callback) return;"
+      + "    if (this.signaled[name] || this.ready(name)) {"
+      + "      delete this.waiting[name];"
+      + "      delete this.signaled[name];"
+      + "      return callback(true);"
+      + "    }"
+      + "    if (Date.now() >= deadline) {"
+      + "      delete this.waiting[name];"
+      + "      return callback({timeout:true});"
+      + "    }"
+      + "    setTimeout(poll, 100);"
+      + "  };"
+      + "  this.waiting[name] = callback;"
+      + "  poll();"
+      + "}"
+
+      + "};"
+
+      + "addEventListener('message', e=>{"
+      + "  if (e.origin !== location.origin) return;"
+      + "  var name = e.data && e.data.tbrpcView;"
+      + "  if (name != null) window.__tbrpc.signal(name);"
+      + "});";
+
+  /** Value passed to the callback of {@link #CALL_SCRIPT} if the dispatcher is not installed. */
+  private static final String NOT_INSTALLED = "__tbrpc_not_installed";
+
+  /**
+   * Script that invokes a dispatcher function. The callback is invoked with {@link #NOT_INSTALLED}
+   * if the dispatcher is not installed in the current document.
+   */
+  private static final String CALL_SCRIPT = "var callback = arguments[arguments.length-1];"
+      + "var rpc = window.__tbrpc;"
+      + "if (!rpc) return callback('" + NOT_INSTALLED + "'), 0;"
+      + "rpc[arguments[0]].apply(rpc, [].slice.call(arguments, 1, -1).concat([callback]));";
+
+  /** Script that installs the dispatcher and invokes a dispatcher function. */
+  private static final String INSTALL_AND_CALL_SCRIPT = INSTALL_SCRIPT + CALL_SCRIPT;
+
+  /**
+   * Invokes a function of the dispatcher. If the dispatcher is not installed, the call is retried
+   * together with the installation script.
+   * <p>
+   * WebDriver is not thread-safe, and asynchronous calls are dispatched from another thread (see
+   * {@link RpcAsyncDispatcher}). Therefore, the driver is locked during the call. Code that uses
+   * the driver for several steps that must not be interleaved with other calls (e.g. switching to
+   * another window and back) must also synchronize on the driver.
+   *
+   * @param driver the driver where the function is invoked
+   * @param function the name of the dispatcher function
+   * @param arguments the arguments passed to the dispatcher function
+   * @return the value passed to the callback of the dispatcher function
+   */
+  static Object execute(WebDriver driver, String function, Object... arguments) {
+    JavascriptExecutor executor = (JavascriptExecutor) driver;
+
+    Object[] scriptArguments = new Object[arguments.length + 1];
+    scriptArguments[0] = function;
+    System.arraycopy(arguments, 0, scriptArguments, 1, arguments.length);
+
+    synchronized (driver) {
+      Object result = executor.executeAsyncScript(CALL_SCRIPT, scriptArguments);
+      if (NOT_INSTALLED.equals(result)) {
+        // the document was (re)loaded since the last call
+        result = executor.executeAsyncScript(INSTALL_AND_CALL_SCRIPT, scriptArguments);
+      }
+      return result;
+    }
+  }
+
+}
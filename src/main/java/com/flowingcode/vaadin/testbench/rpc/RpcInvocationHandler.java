@@ -0,0 +1,291 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import com.vaadin.flow.component.ClientCallable;
+import elemental.json.JsonValue;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeoutException;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Base class of the invocation handlers of callable proxies. It dispatches the calls through the
+ * main window or a side channel, and converts their results.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+@RequiredArgsConstructor
+abstract class RpcInvocationHandler implements InvocationHandler {
+
+  protected final HasRpcSupport rpc;
+  protected final RpcSideChannel.Lease sideChannel;
+
+  /** A call to a {@link ClientCallable}, with its arguments converted for the browser. */
+  static final class ClientCall {
+
+    final String callable;
+    final Object[] arguments;
+
+    /** Create a call with arguments that were already converted for the browser. */
+    ClientCall(String callable, Object[] arguments) {
+      this.callable = callable;
+      this.arguments = arguments;
+    }
+
+    /** Create a call, converting its arguments for the browser. */
+    static ClientCall of(String callable, Object... arguments) {
+      arguments = Optional.ofNullable(arguments).map(Object[]::clone).orElse(new Object[0]);
+      for (int i = 0; i < arguments.length; i++) {
+        arguments[i] = convertArgument(arguments[i]);
+      }
+      return new ClientCall(callable, arguments);
+    }
+
+    static Object convertArgument(Object argument) {
+      if (argument instanceof Enum) {
+        return ((Enum<?>) argument).name();
+      } else if (argument instanceof JsonValue) {
+        return TypeConversion.fromJsonValue((JsonValue) argument);
+      } else if (argument instanceof Enum[]) {
+        Enum<?>[] array = (Enum[]) argument;
+        List<String> list = new ArrayList<>(array.length);
+        for (Enum<?> e : array) {
+          list.add(e == null ? null : e.name());
+        }
+        return list;
+      } else if (argument instanceof JsonValue[]) {
+        JsonValue[] array = (JsonValue[]) argument;
+        List<Object> list = new ArrayList<>(array.length);
+        for (JsonValue value : array) {
+          list.add(TypeConversion.fromJsonValue(value));
+        }
+        return list;
+      } else {
+        return argument;
+      }
+    }
+
+  }
+
+  /**
+   * Call a {@link ClientCallable} defined on the integration view.
+   *
+   * @param callable the client callable name
+   * @param arguments arguments to be passed to the callable
+   * @throws TimeoutException if the callable times out (see
+   *         {@link HasRpcSupport#setScriptTimeout(long)})
+   * @throws RuntimeException if the callable fails.
+   */
+  Object call(String callable, Object... arguments)
+      throws RpcCallException {
+    return call(ClientCall.of(callable, arguments));
+  }
+
+  Object call(ClientCall call) throws RpcCallException {
+    return unwrap(execute("call", call.callable, call.arguments));
+  }
+
+  /**
+   * Call several {@link ClientCallable} methods in a single round trip. The calls are fired in
+   * order, without waiting for the previous calls to complete.
+   *
+   * @return the unprocessed responses of each call (see {@link #unwrap(Object)})
+   */
+  List<?> callAll(List<ClientCall> calls) throws RpcCallException {
+    List<Object> batch = new ArrayList<>(calls.size());
+    for (ClientCall call : calls) {
+      batch.add(Arrays.asList(call.callable, call.arguments));
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<String, Object> result = (Map<String, Object>) execute("batch", batch);
+
+    if (!result.containsKey("results")) {
+      throw new RpcCallException((String) result.get("message"));
+    }
+
+    return (List<?>) result.get("results");
+  }
+
+  private static Object unwrap(Object response) throws RpcCallException {
+    @SuppressWarnings("unchecked")
+    Map<String, Object> result = (Map<String, Object>) response;
+
+    if (!result.containsKey("result")) {
+      throw new RpcCallException((String) result.get("message"));
+    }
+
+    return result.get("result");
+  }
+
+  /** Invokes a function of the dispatcher, either in the main window or on the side channel. */
+  private Object execute(String function, Object... arguments) {
+    if (sideChannel == null) {
+      return RpcBootstrap.execute(rpc.getDriver(), function,
+          RpcSideChannel.prepend(null, arguments));
+    }
+
+    return sideChannel.get().execute(function, arguments);
+  }
+
+  private void openSideChannel() {
+    if (sideChannel != null) {
+      sideChannel.open();
+    }
+  }
+
+  private void closeSideChannel() {
+    if (sideChannel != null) {
+      sideChannel.release();
+    }
+  }
+
+  /** Returns whether calls from both handlers are dispatched from the same window. */
+  final boolean isSameChannel(RpcInvocationHandler other) {
+    if (sideChannel == null || other.sideChannel == null) {
+      return sideChannel == other.sideChannel;
+    }
+    return sideChannel.isSameChannel(other.sideChannel);
+  }
+
+  /** Returns whether the method is implemented by the proxy, without calling the server. */
+  boolean isLocal(Method method, Object[] args) {
+    return false;
+  }
+
+  Object invokeLocally(Method method, Object[] args) {
+    throw new UnsupportedOperationException();
+  }
+
+  /** Delivers the buffered events of test-side listeners (see {@link RmiEventSupport}). */
+  int drainEvents() throws Exception {
+    throw new UnsupportedOperationException("Events are only supported by RMI proxies");
+  }
+
+  abstract ClientCall marshal(RpcMethodPlan plan, Object[] args) throws Exception;
+
+  abstract Object convertResult(Object result, Type resultType, Class<?> returnType)
+      throws Exception;
+
+  @Override
+  public final Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == SideChannelSupport.class) {
+      if (method.getName().equals("openSideChannel")) {
+        openSideChannel();
+      } else {
+        closeSideChannel();
+      }
+      return null;
+    }
+
+    if (method.getDeclaringClass() == RmiEventSupport.class) {
+      try {
+        return drainEvents();
+      } catch (Exception e) {
+        throw wrap(method, args, e);
+      }
+    }
+
+    if (isLocal(method, args)) {
+      return invokeLocally(method, args);
+    }
+
+    RpcMethodPlan plan = RpcMethodPlan.of(method);
+    RpcBatch batch = RpcBatch.current(rpc);
+    try {
+      ClientCall call = marshal(plan, args);
+      if (plan.async) {
+        return RpcAsyncDispatcher.getInstance(rpc.getDriver()).submit(this, method, args, call);
+      }
+      if (batch != null && method.getDeclaringClass() != Object.class) {
+        batch.add(this, method, args, call);
+        return defaultValue(method.getReturnType());
+      }
+      return convertOrRetry(plan, args, call(call));
+    } catch (Exception e) {
+      throw wrap(method, args, e);
+    }
+  }
+
+  /**
+   * Completes a call that was dispatched as part of a batch, or asynchronously.
+   *
+   * @param response the unprocessed response of the call
+   */
+  final Object complete(Method method, Object[] args, Object response) {
+    try {
+      return convertOrRetry(RpcMethodPlan.of(method), args, unwrap(response));
+    } catch (Exception e) {
+      throw wrap(method, args, e);
+    }
+  }
+
+  /**
+   * Converts the result of a call. If the call was not executed, and the server allows it to be
+   * dispatched again (see {@link RpcRetryException}), the call is marshalled and dispatched again,
+   * but only once.
+   */
+  private Object convertOrRetry(RpcMethodPlan plan, Object[] args, Object result)
+      throws Exception {
+    try {
+      return convert(plan, result);
+    } catch (RpcRetryException e) {
+      return convert(plan, call(marshal(plan, args)));
+    }
+  }
+
+  private Object convert(RpcMethodPlan plan, Object result) throws Exception {
+    if (plan.primitiveResult && result == null) {
+      throw new ClassCastException("Cannot cast null as " + plan.resultType);
+    }
+
+    return convertResult(result, plan.resultType, plan.resultClass);
+  }
+
+  static RpcException wrap(Method method, Object[] args, Exception e) {
+    if (e instanceof RpcException) {
+      return (RpcException) e;
+    } else if (e instanceof RpcCallException) {
+      if (e.getCause() != null) {
+        return new RpcException(method.getName(), args, e.getMessage(), e.getCause());
+      } else {
+        return new RpcException(method.getName(), args, e.getMessage());
+      }
+    } else {
+      return new RpcException(method.getName(), args, e);
+    }
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type.isPrimitive() && type != Void.TYPE) {
+      return Array.get(Array.newInstance(type, 1), 0);
+    }
+    return null;
+  }
+
+}
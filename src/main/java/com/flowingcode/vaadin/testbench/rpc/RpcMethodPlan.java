@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import com.flowingcode.vaadin.testbench.rpc.RpcInvocationHandler.ClientCall;
+import elemental.json.JsonValue;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import org.apache.commons.lang3.ClassUtils;
+
+/**
+ * Invocation plan of a callable method. The plan holds everything that only depends on the method
+ * (the converters of its arguments, its signature and the type of its result), so that it's
+ * resolved only once, instead of on each invocation.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+final class RpcMethodPlan {
+
+  private static final ClassValue<Map<Method, RpcMethodPlan>> PLANS =
+      new ClassValue<Map<Method, RpcMethodPlan>>() {
+        @Override
+        protected Map<Method, RpcMethodPlan> computeValue(Class<?> type) {
+          return new ConcurrentHashMap<>();
+        }
+      };
+
+  final Method method;
+
+  /** Converters of each argument, {@code null} if the argument is passed as is. */
+  private final UnaryOperator<Object>[] converters;
+
+  /** The names of the parameter types. */
+  final List<String> signature;
+
+  /**
+   * Whether all the arguments can be transferred as JSON in RMI invocations (see
+   * {@link TypeConversion#isJsonArgumentType(Class)}).
+   */
+  final boolean jsonArguments;
+
+  /** Whether the method returns {@code CompletableFuture}. */
+  final boolean async;
+
+  /** The type of the values produced by the method (see {@link TypeConversion#getResultType}). */
+  final Type resultType;
+
+  /** The erasure of {@link #resultType}, with primitive types replaced by their wrappers. */
+  final Class<?> resultClass;
+
+  /**
+   * Whether RMI results can be transferred as JSON (see
+   * {@link TypeConversion#isJsonResultType(Type)}).
+   */
+  final boolean jsonResult;
+
+  /** Whether {@link #resultType} is a primitive type other than {@code void}. */
+  final boolean primitiveResult;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private RpcMethodPlan(Method method) {
+    this.method = method;
+
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    converters = new UnaryOperator[parameterTypes.length];
+    List<String> signature = new ArrayList<>(parameterTypes.length);
+    boolean jsonArguments = true;
+    for (int i = 0; i < parameterTypes.length; i++) {
+      converters[i] = converterFor(parameterTypes[i]);
+      signature.add(parameterTypes[i].getName());
+      jsonArguments &= TypeConversion.isJsonArgumentType(parameterTypes[i]);
+    }
+    this.signature = Collections.unmodifiableList(signature);
+    this.jsonArguments = jsonArguments;
+
+    async = method.getReturnType() == CompletableFuture.class;
+    resultType = TypeConversion.getResultType(method);
+    jsonResult = TypeConversion.isJsonResultType(resultType);
+
+    Class<?> resultClass = TypeConversion.getResultClass(method);
+    primitiveResult = resultClass != Void.TYPE && resultClass.isPrimitive();
+    this.resultClass = primitiveResult ? ClassUtils.primitiveToWrapper(resultClass) : resultClass;
+  }
+
+  /** Returns the plan of the given method. */
+  static RpcMethodPlan of(Method method) {
+    return PLANS.get(method.getDeclaringClass()).computeIfAbsent(method, RpcMethodPlan::new);
+  }
+
+  private static UnaryOperator<Object> converterFor(Class<?> type) {
+    if (type.isPrimitive() || type == String.class || ClassUtils.wrapperToPrimitive(type) != null) {
+      return null;
+    } else if (type.isArray() && (type.getComponentType().isPrimitive()
+        || type.getComponentType() == String.class)) {
+      return null;
+    } else if (type.isEnum()) {
+      return arg -> ((Enum<?>) arg).name();
+    } else if (JsonValue.class.isAssignableFrom(type)) {
+      return arg -> TypeConversion.fromJsonValue((JsonValue) arg);
+    } else {
+      return ClientCall::convertArgument;
+    }
+  }
+
+  /** Converts the arguments of an invocation into a call to the given callable. */
+  ClientCall marshal(String callable, Object[] args) {
+    if (args == null || args.length == 0) {
+      return new ClientCall(callable, new Object[0]);
+    }
+
+    Object[] arguments = new Object[args.length];
+    for (int i = 0; i < args.length; i++) {
+      Object arg = args[i];
+      if (arg != null && converters[i] != null) {
+        arg = converters[i].apply(arg);
+      }
+      arguments[i] = arg;
+    }
+    return new ClientCall(callable, arguments);
+  }
+
+  /**
+   * Converts the arguments of an RMI invocation into a JSON array, or returns {@code null} if they
+   * must be serialized instead.
+   */
+  List<Object> toJsonArguments(Object[] args) {
+    if (!jsonArguments) {
+      return null;
+    }
+
+    List<Object> arguments = new ArrayList<>(args.length);
+    try {
+      for (Object arg : args) {
+        arguments.add(TypeConversion.toJsonArgument(arg));
+      }
+    } catch (IllegalArgumentException e) {
+      // a value has no exact JSON representation
+      return null;
+    }
+    return arguments;
+  }
+
+}
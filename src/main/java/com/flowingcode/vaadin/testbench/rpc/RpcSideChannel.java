@@ -0,0 +1,662 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import lombok.RequiredArgsConstructor;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NoSuchWindowException;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * A channel for dispatching calls to a view other than the one in the main window. Side channels
+ * are pooled per driver, URL and mode, so that all the proxies (and remote stubs) that target the
+ * same URL share a single window or frame. A channel is closed when it is no longer referenced.
+ * <p>
+ * Opening a side channel does not block: the first call waits until the view of the side channel
+ * is ready, either because it was found by polling or because it signaled (see
+ * {@link RpcViewInitializer}).
+ * <p>
+ * Channels hold their driver weakly, so that the pool does not prevent the driver (and the
+ * channels it opened) from being collected if {@link #closeAll(WebDriver)} is never called.
+ *
+ * @author Javier Godoy / Flowing Code
+ * @see SideChannelMode
+ */
+abstract class RpcSideChannel {
+
+  private static final Map<WebDriver, Map<List<Object>, RpcSideChannel>> POOL =
+      new WeakHashMap<>();
+
+  /** How long to wait until a side channel is ready, in milliseconds. */
+  private static final long READY_TIMEOUT = 10000;
+
+  private final WeakReference<WebDriver> driver;
+  protected final String url;
+
+  private List<Object> key;
+
+  private int references;
+
+  /** Whether the channel was removed from the pool by {@link #closeAll(WebDriver)}. */
+  private boolean discarded;
+
+  protected RpcSideChannel(WebDriver driver, String url) {
+    this.driver = new WeakReference<>(driver);
+    this.url = url;
+  }
+
+  /**
+   * Returns the driver that opened the side channel.
+   *
+   * @throws RpcException if the driver is no longer available
+   */
+  protected final WebDriver driver() {
+    WebDriver driver = this.driver.get();
+    if (driver == null) {
+      throw new RpcException("The driver of side channel " + url + " is no longer available");
+    }
+    return driver;
+  }
+
+  /** Returns the driver that opened the side channel, or {@code null} if it was collected. */
+  protected final WebDriver driverIfAvailable() {
+    return driver.get();
+  }
+
+  private static RpcSideChannel create(WebDriver driver, String url, SideChannelMode mode,
+      Supplier<? extends WebDriver> driverFactory) {
+    switch (mode) {
+      case WINDOW:
+        return new RpcSideChannel$Window(driver, url);
+      case IFRAME:
+        return new RpcSideChannel$Frame(driver, url);
+      case SESSION:
+        return new RpcSideChannel$Session(driver, url, driverFactory);
+      case DIRECT:
+        return new RpcSideChannel$Direct(driver);
+      default:
+        throw new IllegalArgumentException(mode.toString());
+    }
+  }
+
+  /**
+   * Returns the pooled side channel for the given driver, URL, mode and driver factory, creating it
+   * if needed. The caller must {@link #release()} the channel when it's no longer used.
+   */
+  static synchronized RpcSideChannel acquire(WebDriver driver, String url, SideChannelMode mode,
+      Supplier<? extends WebDriver> driverFactory) {
+    Map<List<Object>, RpcSideChannel> channels =
+        POOL.computeIfAbsent(driver, __ -> new HashMap<>());
+    List<Object> channelKey = Arrays.asList(url, mode, driverFactory);
+    RpcSideChannel channel = channels.computeIfAbsent(channelKey, key -> {
+      RpcSideChannel c = create(driver, url, mode, driverFactory);
+      c.key = key;
+      return c;
+    });
+    channel.references++;
+    return channel;
+  }
+
+  /** Releases a reference to this channel, and closes the channel if it's no longer referenced. */
+  final void release() {
+    synchronized (RpcSideChannel.class) {
+      if (--references > 0) {
+        return;
+      }
+      WebDriver driver = driverIfAvailable();
+      Map<List<Object>, RpcSideChannel> channels = driver != null ? POOL.get(driver) : null;
+      if (channels != null) {
+        channels.remove(key, this);
+        if (channels.isEmpty()) {
+          POOL.remove(driver);
+        }
+      }
+    }
+    close();
+  }
+
+  /** Closes all the side channels that were opened by the given driver. */
+  static void closeAll(WebDriver driver) {
+    Map<List<Object>, RpcSideChannel> channels;
+    synchronized (RpcSideChannel.class) {
+      channels = POOL.remove(driver);
+      if (channels != null) {
+        channels.values().forEach(channel -> channel.discarded = true);
+      }
+    }
+    if (channels != null) {
+      channels.values().forEach(RpcSideChannel::close);
+    }
+  }
+
+  /**
+   * Invokes a function of the dispatcher on the side channel, opening the channel if needed.
+   *
+   * @param function the name of the dispatcher function, which receives the name of the frame as
+   *        its first argument
+   * @param arguments the remaining arguments passed to the dispatcher function
+   * @return the value passed to the callback of the dispatcher function
+   */
+  abstract Object execute(String function, Object... arguments);
+
+  /** Starts opening the side channel, without waiting until it's ready. */
+  abstract void open();
+
+  /**
+   * Waits until the view of a side channel is ready.
+   *
+   * @param target the driver of the window that opened the side channel (or the driver of the side
+   *        channel itself, if it was opened in another session)
+   * @param name the name of the side channel window or frame, or an empty string if the side
+   *        channel is the current window of {@code target}
+   * @throws RpcException if the side channel did not become ready
+   */
+  protected final void await(WebDriver target, String name) {
+    if (!Boolean.TRUE.equals(RpcBootstrap.execute(target, "await", name, READY_TIMEOUT))) {
+      throw new RpcException("Side channel " + url + " did not become ready");
+    }
+  }
+
+  /** Closes the side channel. The channel is opened again if there is another call. */
+  abstract void close();
+
+  /**
+   * A reference to a pooled side channel, which is shared by a proxy and the remote stubs it
+   * creates. The channel is acquired on the first call, since the driver might not be available
+   * when the proxy is created. If the channel was discarded by {@link #closeAll(WebDriver)}, a new
+   * channel is acquired from the pool on the next call.
+   */
+  @RequiredArgsConstructor
+  static final class Lease {
+
+    private final HasRpcSupport rpc;
+    final String url;
+    final SideChannelMode mode;
+    final Supplier<? extends WebDriver> driverFactory;
+
+    /** The class descriptors that were transferred through this lease. */
+    final RmiClassDictionary dictionary = RmiClassDictionary.newClientInstance();
+
+    private RpcSideChannel channel;
+
+    synchronized RpcSideChannel get() {
+      if (channel != null && isDiscarded()) {
+        channel = null;
+      }
+      if (channel == null) {
+        channel = acquire(rpc.getDriver(), url, mode, driverFactory);
+      }
+      return channel;
+    }
+
+    /** Opens the channel in the background, if the driver is available. */
+    synchronized void open() {
+      if (channel != null || rpc.getDriver() != null) {
+        get().open();
+      }
+    }
+
+    synchronized void release() {
+      if (channel != null && !isDiscarded()) {
+        channel.release();
+      }
+      channel = null;
+    }
+
+    private boolean isDiscarded() {
+      synchronized (RpcSideChannel.class) {
+        return channel.discarded;
+      }
+    }
+
+    /** Returns whether both leases refer to the same pooled channel. */
+    boolean isSameChannel(Lease other) {
+      return Objects.equals(url, other.url) && mode == other.mode
+          && Objects.equals(driverFactory, other.driverFactory);
+    }
+  }
+
+  static Object[] prepend(String frame, Object[] arguments) {
+    Object[] result = new Object[arguments.length + 1];
+    result[0] = frame;
+    System.arraycopy(arguments, 0, result, 1, arguments.length);
+    return result;
+  }
+
+}
+
+
+/** A side channel that is opened in a new browser window. */
+final class RpcSideChannel$Window extends RpcSideChannel {
+
+  private String windowName;
+
+  private String windowHandle;
+
+  RpcSideChannel$Window(WebDriver driver, String url) {
+    super(driver, url);
+  }
+
+  @Override
+  synchronized void open() {
+    if (windowName == null) {
+      windowName = UUID.randomUUID().toString();
+      RpcBootstrap.execute(driver(), "open", windowName, url, false);
+    }
+  }
+
+  @Override
+  synchronized Object execute(String function, Object... arguments) {
+    // the driver is locked while the side window is the current one (see RpcBootstrap)
+    WebDriver driver = driver();
+    synchronized (driver) {
+      String mainWindow = switchToSideWindow(driver);
+      try {
+        return RpcBootstrap.execute(driver, function, prepend(null, arguments));
+      } finally {
+        driver.switchTo().window(mainWindow);
+      }
+    }
+  }
+
+  /**
+   * Switches to the side window, opening it if needed, and returns the current window handle.
+   */
+  private String switchToSideWindow(WebDriver driver) {
+    open();
+    String currentWindow = driver.getWindowHandle();
+    if (windowHandle != null) {
+      driver.switchTo().window(windowHandle);
+    } else {
+      // the side window notifies the window that opened it
+      await(driver, windowName);
+      driver.switchTo().window(windowName);
+      windowHandle = driver.getWindowHandle();
+    }
+    return currentWindow;
+  }
+
+  @Override
+  synchronized void close() {
+    WebDriver driver = driverIfAvailable();
+    if (windowName == null || driver == null) {
+      windowName = null;
+      windowHandle = null;
+      return;
+    }
+
+    synchronized (driver) {
+      String current = driver.getWindowHandle();
+      try {
+        driver.switchTo().window(windowHandle != null ? windowHandle : windowName);
+      } catch (NoSuchWindowException e) {
+        return;
+      } finally {
+        windowName = null;
+        windowHandle = null;
+      }
+      driver.close();
+      driver.switchTo().window(current);
+    }
+  }
+
+}
+
+
+/** A side channel that is opened in a hidden iframe of the main window. */
+final class RpcSideChannel$Frame extends RpcSideChannel {
+
+  private static final String CLOSE_SCRIPT = "var f = document.getElementsByName(arguments[0])[0];"
+      + "if (f) f.remove();";
+
+  private String frameName;
+
+  private boolean ready;
+
+  RpcSideChannel$Frame(WebDriver driver, String url) {
+    super(driver, url);
+  }
+
+  @Override
+  synchronized void open() {
+    if (frameName == null) {
+      frameName = UUID.randomUUID().toString();
+      ready = false;
+      RpcBootstrap.execute(driver(), "open", frameName, url, true);
+    }
+  }
+
+  @Override
+  synchronized Object execute(String function, Object... arguments) {
+    WebDriver driver = driver();
+    awaitFrame();
+    Object result = RpcBootstrap.execute(driver, function, prepend(frameName, arguments));
+    if (isFrameMissing(result)) {
+      // the main window was reloaded since the frame was opened
+      frameName = null;
+      awaitFrame();
+      result = RpcBootstrap.execute(driver, function, prepend(frameName, arguments));
+    }
+    return result;
+  }
+
+  private void awaitFrame() {
+    open();
+    if (!ready) {
+      await(driver(), frameName);
+      ready = true;
+    }
+  }
+
+  private static boolean isFrameMissing(Object result) {
+    return result instanceof Map && Boolean.FALSE.equals(((Map<?, ?>) result).get("frame"));
+  }
+
+  @Override
+  synchronized void close() {
+    WebDriver driver = driverIfAvailable();
+    if (frameName != null && driver != null) {
+      synchronized (driver) {
+        ((JavascriptExecutor) driver).executeScript(CLOSE_SCRIPT, frameName);
+      }
+    }
+    frameName = null;
+  }
+
+}
+
+
+/**
+ * A side channel that is opened in a secondary WebDriver session, which shares the cookies of the
+ * main driver. The secondary session is started in the background, and calls are dispatched
+ * without using the main driver.
+ */
+final class RpcSideChannel$Session extends RpcSideChannel {
+
+  private final Supplier<? extends WebDriver> driverFactory;
+
+  private CompletableFuture<WebDriver> session;
+
+  private boolean ready;
+
+  RpcSideChannel$Session(WebDriver driver, String url,
+      Supplier<? extends WebDriver> driverFactory) {
+    super(driver, url);
+    this.driverFactory = Objects.requireNonNull(driverFactory);
+  }
+
+  @Override
+  synchronized void open() {
+    if (session == null) {
+      // the cookies are read in the current thread, since the main driver might be in use later
+      Set<Cookie> cookies;
+      WebDriver driver = driver();
+      synchronized (driver) {
+        cookies = driver.manage().getCookies();
+      }
+      ready = false;
+      session = CompletableFuture.supplyAsync(() -> start(cookies));
+    }
+  }
+
+  private WebDriver start(Set<Cookie> cookies) {
+    WebDriver secondary = driverFactory.get();
+    try {
+      // cookies can only be added for the domain of the current page
+      secondary.get(url.replaceFirst("^(\\w+://[^/]+).*", "$1/favicon.ico"));
+      secondary.manage().deleteAllCookies();
+      cookies.forEach(secondary.manage()::addCookie);
+      secondary.get(url);
+    } catch (RuntimeException e) {
+      secondary.quit();
+      throw e;
+    }
+    return secondary;
+  }
+
+  @Override
+  synchronized Object execute(String function, Object... arguments) {
+    open();
+
+    WebDriver secondary;
+    try {
+      secondary = session.join();
+    } catch (CompletionException e) {
+      session = null;
+      throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+    }
+
+    if (!ready) {
+      await(secondary, "");
+      ready = true;
+    }
+    return RpcBootstrap.execute(secondary, function, prepend(null, arguments));
+  }
+
+  @Override
+  synchronized void close() {
+    if (session != null) {
+      WebDriver secondary = session.exceptionally(e -> null).join();
+      session = null;
+      if (secondary != null) {
+        secondary.quit();
+      }
+    }
+  }
+
+}
+
+
+/**
+ * A channel that sends RMI invocations directly to the server (see {@link RmiDirectEndpoint}),
+ * without going through WebDriver and the browser. The session cookie and the token of the UI are
+ * read from the main window before the first call, and again if the server rejects them (e.g.
+ * because the main window was reloaded). If the server runs in the same JVM, invocations are
+ * dispatched in-process instead of over HTTP.
+ */
+final class RpcSideChannel$Direct extends RpcSideChannel {
+
+  private static final String HANDSHAKE_SCRIPT = "var d = window.__tbrpcDirect;"
+      + "return d ? {ui: d.ui, token: d.token, url: document.baseURI} : null;";
+
+  private URL endpoint;
+  private String cookies;
+  private long uiId;
+  private String token;
+
+  RpcSideChannel$Direct(WebDriver driver) {
+    super(driver, null);
+  }
+
+  @Override
+  void open() {
+    // the handshake needs the UI of the main window, so it's done before the first call
+  }
+
+  private void handshake() throws IOException {
+    // the driver is locked, as in RpcBootstrap
+    WebDriver driver = driver();
+    synchronized (driver) {
+      Map<?, ?> direct =
+          (Map<?, ?>) ((JavascriptExecutor) driver).executeScript(HANDSHAKE_SCRIPT);
+      if (direct == null) {
+        throw new RpcException(
+            "RmiDirectEndpoint is not registered in " + driver.getCurrentUrl());
+      }
+
+      endpoint = new URL(new URL((String) direct.get("url")),
+          "?v-r=" + RmiDirectEndpoint.REQUEST_TYPE);
+      uiId = ((Number) direct.get("ui")).longValue();
+      token = (String) direct.get("token");
+      cookies = driver.manage().getCookies().stream()
+          .map(cookie -> cookie.getName() + "=" + cookie.getValue())
+          .collect(Collectors.joining("; "));
+    }
+  }
+
+  @Override
+  synchronized Object execute(String function, Object... arguments) {
+    List<?> calls;
+    switch (function) {
+      case "call":
+        calls = Arrays.asList(Arrays.asList(arguments));
+        break;
+      case "batch":
+        calls = (List<?>) arguments[0];
+        break;
+      default:
+        throw new UnsupportedOperationException(function);
+    }
+
+    JsonArray invocations = Json.createArray();
+    for (Object call : calls) {
+      Object[] callArguments = (Object[]) ((List<?>) call).get(1);
+      invocations.set(invocations.length(), TypeConversion.toJsonValue(callArguments[0]));
+    }
+
+    JsonArray responses;
+    try {
+      if (token == null) {
+        handshake();
+      }
+      responses = post(invocations);
+      if (responses == null) {
+        // the UI was detached, or the token was not accepted
+        handshake();
+        responses = post(invocations);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    if (responses == null) {
+      throw new RpcException("The direct call was rejected by the server");
+    }
+
+    List<Object> results = new ArrayList<>(responses.length());
+    for (int i = 0; i < responses.length(); i++) {
+      results.add(toResponse(responses.getObject(i)));
+    }
+    return function.equals("call") ? results.get(0)
+        : Collections.singletonMap("results", results);
+  }
+
+  /** Sends the invocations, and returns their responses, or {@code null} if they were rejected. */
+  private JsonArray post(JsonArray invocations) throws IOException {
+    JsonObject body = Json.createObject();
+    body.put("ui", uiId);
+    body.put("token", token);
+    body.put("calls", invocations);
+
+    // the in-process dispatchers reject the token if it belongs to another server
+    String response = RmiDirectEndpoint.InProcess.dispatch(body.toJson());
+    if (response != null) {
+      return Json.instance().parse(response);
+    }
+
+    HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+    connection.setRequestProperty("Cookie", cookies);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body.toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    int status = connection.getResponseCode();
+    if (status == HttpURLConnection.HTTP_FORBIDDEN) {
+      // read the error response, so that the connection can be reused
+      try (InputStream in = connection.getErrorStream()) {
+        if (in != null) {
+          readFully(in);
+        }
+      }
+      return null;
+    } else if (status != HttpURLConnection.HTTP_OK) {
+      throw new IOException("Direct call failed with HTTP status " + status);
+    }
+
+    try (InputStream in = connection.getInputStream()) {
+      return Json.instance().parse(new String(readFully(in), StandardCharsets.UTF_8));
+    }
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int n; (n = in.read(buffer)) > 0;) {
+      out.write(buffer, 0, n);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Converts the response of an invocation into the form returned by the client-side dispatcher.
+   * Integral numbers are returned as {@code Long}, as WebDriver does.
+   */
+  private static Map<String, Object> toResponse(JsonObject json) {
+    Map<String, Object> response = new LinkedHashMap<>();
+    if (json.hasKey("result")) {
+      Object result = TypeConversion.fromJsonValue(json.get("result"));
+      if (result instanceof Double && (Double) result == Math.rint((Double) result)
+          && !((Double) result).isInfinite()) {
+        result = ((Double) result).longValue();
+      }
+      response.put("result", result);
+    } else {
+      response.put("message", json.getString("message"));
+    }
+    return response;
+  }
+
+  @Override
+  synchronized void close() {
+    token = null;
+  }
+
+}
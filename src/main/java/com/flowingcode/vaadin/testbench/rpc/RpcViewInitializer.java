@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import com.flowingcode.vaadin.jsonmigration.LegacyClientCallable;
+import com.vaadin.flow.component.ClientCallable;
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.ComponentUtil;
+import com.vaadin.flow.component.HasElement;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.router.AfterNavigationEvent;
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.VaadinServiceInitListener;
+import java.lang.reflect.Method;
+
+/**
+ * Registers the view that handles RPC calls in the browser, so that the client-side dispatcher
+ * does not need to search the DOM on each call. The view is the innermost component of the active
+ * router chain that implements {@link RmiCallable} or declares {@link ClientCallable} methods. The
+ * registration is invalidated when the view is detached.
+ * <p>
+ * When the view is registered, the window that opened it (or the window itself, if it's a top-level
+ * window that was not opened by script) is notified, so that side channels become ready without
+ * waiting for the next poll. The notification is only delivered to windows of the same origin.
+ * <p>
+ * The listener is opt-in: applications (or their test configuration) register it as a service in
+ * {@code META-INF/services/com.vaadin.flow.server.VaadinServiceInitListener}. Without it, the
+ * dispatcher searches the DOM for the view.
+ *
+ * @author Javier Godoy / Flowing Code
+ */
+@SuppressWarnings("serial")
+public class RpcViewInitializer implements VaadinServiceInitListener {
+
+  private static final ClassValue<Boolean> CALLABLE = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      for (Class<?> c = type; c != null && c != Component.class; c = c.getSuperclass()) {
+        for (Method method : c.getDeclaredMethods()) {
+          if (method.isAnnotationPresent(ClientCallable.class)
+              || method.isAnnotationPresent(LegacyClientCallable.class)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  };
+
+  private static final String VIEW_KEY = RpcViewInitializer.class.getName() + ".view";
+
+  /** Marks the views whose detach listener was already added. */
+  private static final String REGISTERED_KEY = RpcViewInitializer.class.getName() + ".registered";
+
+  @Override
+  public void serviceInit(ServiceInitEvent event) {
+    event.getSource().addUIInitListener(ev -> ev.getUI()
+        .addAfterNavigationListener(RpcViewInitializer::afterNavigation));
+  }
+
+  private static void afterNavigation(AfterNavigationEvent event) {
+    for (HasElement target : event.getActiveChain()) {
+      if (target instanceof Component && isCallable(target)) {
+        register((Component) target);
+        return;
+      }
+    }
+  }
+
+  private static boolean isCallable(HasElement target) {
+    return target instanceof RmiCallable || CALLABLE.get(target.getClass());
+  }
+
+  /**
+   * Returns the view that was registered in the given UI, or {@code null} if there is no such view.
+   * The UI must be locked.
+   */
+  static Component getView(UI ui) {
+    Component view = (Component) ComponentUtil.getData(ui, VIEW_KEY);
+    return view != null && view.isAttached() ? view : null;
+  }
+
+  static void register(Component view) {
+    view.getUI().ifPresent(ui -> ComponentUtil.setData(ui, VIEW_KEY, view));
+    view.getElement().executeJs("window.__tbrpcView = this;"
+        + "(window.opener || window.parent).postMessage({tbrpcView: window.name},"
+        + " location.origin);");
+
+    if (ComponentUtil.getData(view, REGISTERED_KEY) == null) {
+      ComponentUtil.setData(view, REGISTERED_KEY, Boolean.TRUE);
+      view.addDetachListener(ev -> {
+        ev.unregisterListener();
+        ComponentUtil.setData(view, REGISTERED_KEY, null);
+        ev.getUI().getPage().executeJs(
+            "if (window.__tbrpcView && !window.__tbrpcView.isConnected)"
+                + " delete window.__tbrpcView;");
+      });
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+/**
+ * Defines how a side channel is opened.
+ *
+ * @author Javier Godoy / Flowing Code
+ * @see HasRpcSupport#createCallableProxy(Class, String, SideChannelMode)
+ */
+public enum SideChannelMode {
+
+  /**
+   * The side channel is opened in a new browser window. The WebDriver switches to that window
+   * before each call, and switches back to the main window after the call.
+   */
+  WINDOW,
+
+  /**
+   * The side channel is opened in a hidden iframe of the main window. Calls are dispatched by
+   * script into the iframe, without switching WebDriver windows. The URL must have the same origin
+   * as the main window.
+   */
+  IFRAME,
+
+  /**
+   * The side channel is opened in a secondary WebDriver session, which shares the cookies (and
+   * therefore the HTTP session) of the main driver. Calls do not use the main driver, so they can
+   * run on another thread while the main window is being used. The secondary session is created by
+   * the driver factory given to
+   * {@link HasRpcSupport#createCallableProxy(Class, String, java.util.function.Supplier)}, and it
+   * is quit when the side channel is closed.
+   */
+  SESSION,
+
+  /**
+   * RMI invocations are sent directly to the server, without going through WebDriver and the
+   * browser. The invocations are dispatched to the view of the UI in the main window, which must
+   * implement {@link RmiCallable}. This mode requires that {@link RmiDirectEndpoint} is registered
+   * in the application under test. Proxies with this mode are created by
+   * {@link HasRpcSupport#createDirectCallableProxy(Class)}.
+   */
+  DIRECT;
+
+}
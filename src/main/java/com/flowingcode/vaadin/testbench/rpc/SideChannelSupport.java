@@ -2,6 +2,15 @@ package com.flowingcode.vaadin.testbench.rpc;
 
 public interface SideChannelSupport {
 
+  /**
+   * Opens the side channel in the background, so that it's ready when the first call is made. Side
+   * channels are also opened when the proxy is created (if the driver is available at that point)
+   * and on the first call.
+   */
+  default void openSideChannel() {
+    throw new UnsupportedOperationException();
+  }
+
   default void closeSideChannel() {
     throw new UnsupportedOperationException();
   }
@@ -22,17 +22,39 @@ package com.flowingcode.vaadin.testbench.rpc;
 import elemental.json.Json;
 import elemental.json.JsonArray;
 import elemental.json.JsonObject;
+import elemental.json.JsonType;
 import elemental.json.JsonValue;
 import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import lombok.experimental.UtilityClass;
+import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.reflect.TypeUtils;
 
 @UtilityClass
@@ -81,6 +103,9 @@ class TypeConversion {
     if (arg instanceof Double) {
       return Json.create((Double) arg);
     }
+    if (arg instanceof Integer) {
+      return Json.create((Integer) arg);
+    }
     if (arg instanceof List) {
       List<?> list = (List<?>) arg;
       JsonArray array = Json.createArray();
@@ -115,11 +140,294 @@ class TypeConversion {
           list.add(fromJsonValue(array.get(i)));
         }
         return list;
+      case OBJECT:
+        JsonObject object = (JsonObject) arg;
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (String key : object.keys()) {
+          map.put(key, fromJsonValue(object.get(key)));
+        }
+        return map;
       default:
         return arg;
     }
   }
 
+  /** Largest magnitude of a {@code long} that is represented exactly by a JSON number. */
+  private static final long MAX_SAFE_INTEGER = (1L << 53) - 1;
+
+  /**
+   * Returns whether arguments of the given type are transferred as JSON in RMI invocations,
+   * instead of being serialized. Such types are primitive types and their wrappers, strings,
+   * enums and arrays of primitive types.
+   */
+  static boolean isJsonArgumentType(Class<?> type) {
+    if (type.isArray()) {
+      return type.getComponentType().isPrimitive();
+    }
+    return type.isPrimitive() || ClassUtils.wrapperToPrimitive(type) != null || type == String.class
+        || type.isEnum();
+  }
+
+  /**
+   * Converts an RMI argument into a value that is transferred as JSON (see
+   * {@link #isJsonArgumentType(Class)}). Byte arrays are encoded in Base64, and char arrays are
+   * transferred as strings.
+   *
+   * @throws IllegalArgumentException if the argument has no exact JSON representation (such as
+   *         non-finite numbers, or {@code long} values beyond 2<sup>53</sup>)
+   */
+  static Object toJsonArgument(Object arg) {
+    if (arg == null || arg instanceof Boolean || arg instanceof String
+        || arg instanceof Integer) {
+      return arg;
+    } else if (arg instanceof Byte || arg instanceof Short) {
+      return ((Number) arg).intValue();
+    } else if (arg instanceof Character) {
+      return arg.toString();
+    } else if (arg instanceof Enum) {
+      return ((Enum<?>) arg).name();
+    } else if (arg instanceof Long) {
+      long value = (Long) arg;
+      if (value < -MAX_SAFE_INTEGER || value > MAX_SAFE_INTEGER) {
+        throw new IllegalArgumentException("Not a safe integer: " + value);
+      }
+      return arg;
+    } else if (arg instanceof Float || arg instanceof Double) {
+      double value = ((Number) arg).doubleValue();
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+        throw new IllegalArgumentException("Not a finite number: " + value);
+      }
+      return value;
+    } else if (arg instanceof byte[]) {
+      return Base64.getEncoder().encodeToString((byte[]) arg);
+    } else if (arg instanceof char[]) {
+      return new String((char[]) arg);
+    } else if (arg.getClass().isArray() && arg.getClass().getComponentType().isPrimitive()) {
+      int length = Array.getLength(arg);
+      List<Object> list = new ArrayList<>(length);
+      for (int i = 0; i < length; i++) {
+        list.add(toJsonArgument(Array.get(arg, i)));
+      }
+      return list;
+    }
+    throw new IllegalArgumentException("Cannot convert " + arg.getClass().getName() + " to JSON");
+  }
+
+  /**
+   * Converts a JSON value produced by {@link #toJsonArgument(Object)} into an argument of the given
+   * type.
+   *
+   * @throws IllegalArgumentException if the JSON value does not represent a value of that type
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static Object fromJsonArgument(JsonValue value, Class<?> type) {
+    if (value == null || value.getType() == JsonType.NULL) {
+      if (type.isPrimitive()) {
+        throw new IllegalArgumentException("Null value for " + type.getName());
+      }
+      return null;
+    }
+
+    Class<?> wrapper = type.isPrimitive() ? ClassUtils.primitiveToWrapper(type) : type;
+    if (wrapper == Boolean.class && value.getType() == JsonType.BOOLEAN) {
+      return value.asBoolean();
+    } else if (value.getType() == JsonType.NUMBER && Number.class.isAssignableFrom(wrapper)) {
+      return fromJsonNumber(value.asNumber(), wrapper);
+    } else if (value.getType() == JsonType.STRING) {
+      String string = value.asString();
+      if (wrapper == String.class) {
+        return string;
+      } else if (wrapper == Character.class && string.length() == 1) {
+        return string.charAt(0);
+      } else if (wrapper.isEnum()) {
+        return Enum.valueOf((Class) wrapper, string);
+      } else if (wrapper == byte[].class) {
+        return Base64.getDecoder().decode(string);
+      } else if (wrapper == char[].class) {
+        return string.toCharArray();
+      }
+    } else if (value.getType() == JsonType.ARRAY && wrapper.isArray()
+        && wrapper.getComponentType().isPrimitive()) {
+      JsonArray array = (JsonArray) value;
+      Class<?> componentType = wrapper.getComponentType();
+      Object result = Array.newInstance(componentType, array.length());
+      for (int i = 0; i < array.length(); i++) {
+        Array.set(result, i, fromJsonArgument(array.get(i), componentType));
+      }
+      return result;
+    }
+
+    throw new IllegalArgumentException(
+        String.format("Cannot convert %s to %s", value.toJson(), type.getName()));
+  }
+
+  private static Number fromJsonNumber(double value, Class<?> type) {
+    Number result;
+    if (type == Double.class) {
+      return value;
+    } else if (type == Float.class) {
+      result = (float) value;
+    } else if (type == Long.class
+        && value >= -MAX_SAFE_INTEGER && value <= MAX_SAFE_INTEGER) {
+      result = (long) value;
+    } else if (type == Integer.class) {
+      result = (int) value;
+    } else if (type == Short.class) {
+      result = (short) value;
+    } else if (type == Byte.class) {
+      result = (byte) value;
+    } else {
+      throw new IllegalArgumentException("Cannot convert " + value + " to " + type.getName());
+    }
+
+    // the conversion must be exact (e.g. integers must not be truncated)
+    if (result.doubleValue() != value) {
+      throw new IllegalArgumentException("Cannot convert " + value + " to " + type.getName());
+    }
+    return result;
+  }
+
+  /** Collection and map types that are rebuilt from JSON results, and their implementations. */
+  private static final Map<Class<?>, Supplier<?>> CONTAINERS = new HashMap<>();
+
+  static {
+    CONTAINERS.put(Collection.class, ArrayList::new);
+    CONTAINERS.put(List.class, ArrayList::new);
+    CONTAINERS.put(ArrayList.class, ArrayList::new);
+    CONTAINERS.put(LinkedList.class, LinkedList::new);
+    CONTAINERS.put(Set.class, LinkedHashSet::new);
+    CONTAINERS.put(HashSet.class, HashSet::new);
+    CONTAINERS.put(LinkedHashSet.class, LinkedHashSet::new);
+    CONTAINERS.put(SortedSet.class, TreeSet::new);
+    CONTAINERS.put(NavigableSet.class, TreeSet::new);
+    CONTAINERS.put(TreeSet.class, TreeSet::new);
+    CONTAINERS.put(Map.class, LinkedHashMap::new);
+    CONTAINERS.put(HashMap.class, HashMap::new);
+    CONTAINERS.put(LinkedHashMap.class, LinkedHashMap::new);
+    CONTAINERS.put(SortedMap.class, TreeMap::new);
+    CONTAINERS.put(NavigableMap.class, TreeMap::new);
+    CONTAINERS.put(TreeMap.class, TreeMap::new);
+  }
+
+  /**
+   * Returns whether RMI results of the given type can be transferred as JSON, instead of being
+   * serialized. Such types are the types of JSON arguments (see {@link #isJsonArgumentType}),
+   * arrays of such types, and collections and maps (of the types in {@code java.util}) whose type
+   * arguments are such types.
+   */
+  static boolean isJsonResultType(Type type) {
+    if (type instanceof Class) {
+      Class<?> clazz = (Class<?>) type;
+      if (clazz.isArray()) {
+        return isJsonResultType(clazz.getComponentType());
+      }
+      return clazz != Void.TYPE && isJsonArgumentType(clazz);
+    } else if (type instanceof GenericArrayType) {
+      return isJsonResultType(((GenericArrayType) type).getGenericComponentType());
+    } else if (type instanceof ParameterizedType) {
+      if (!CONTAINERS.containsKey(((ParameterizedType) type).getRawType())) {
+        return false;
+      }
+      for (Type arg : ((ParameterizedType) type).getActualTypeArguments()) {
+        if (!isJsonResultType(arg)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Converts an RMI result of the given type (see {@link #isJsonResultType(Type)}) into a value
+   * that is transferred as JSON. Collections and arrays of objects are converted into lists, and
+   * maps are converted into lists of alternating keys and values (so that the order of their
+   * entries, and keys of any type, are preserved).
+   *
+   * @throws IllegalArgumentException if the result has no exact JSON representation, or it is a
+   *         sorted collection with a comparator
+   */
+  static Object toJsonResult(Object value, Type type) {
+    if (value == null) {
+      return null;
+    } else if (type instanceof ParameterizedType) {
+      Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+      if (value instanceof SortedSet && ((SortedSet<?>) value).comparator() != null
+          || value instanceof SortedMap && ((SortedMap<?, ?>) value).comparator() != null) {
+        throw new IllegalArgumentException("Cannot convert a sorted collection with a comparator");
+      }
+
+      List<Object> list = new ArrayList<>();
+      if (value instanceof Map) {
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          list.add(toJsonResult(entry.getKey(), args[0]));
+          list.add(toJsonResult(entry.getValue(), args[1]));
+        }
+      } else {
+        for (Object e : (Collection<?>) value) {
+          list.add(toJsonResult(e, args[0]));
+        }
+      }
+      return list;
+    } else if (type instanceof GenericArrayType || !isJsonArgumentType((Class<?>) type)) {
+      Type componentType = type instanceof GenericArrayType
+          ? ((GenericArrayType) type).getGenericComponentType()
+          : ((Class<?>) type).getComponentType();
+      Object[] array = (Object[]) value;
+      List<Object> list = new ArrayList<>(array.length);
+      for (Object e : array) {
+        list.add(toJsonResult(e, componentType));
+      }
+      return list;
+    } else if (ClassUtils.primitiveToWrapper((Class<?>) type).isInstance(value)) {
+      return toJsonArgument(value);
+    } else {
+      throw new IllegalArgumentException(String.format("Cannot convert %s to %s",
+          value.getClass().getName(), ((Class<?>) type).getName()));
+    }
+  }
+
+  /**
+   * Converts a JSON value produced by {@link #toJsonResult(Object, Type)} into a result of the
+   * given type.
+   *
+   * @throws IllegalArgumentException if the JSON value does not represent a value of that type
+   */
+  @SuppressWarnings("unchecked")
+  static Object fromJsonResult(Object value, Type type) {
+    if (value == null) {
+      return null;
+    } else if (type instanceof ParameterizedType) {
+      Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+      List<?> list = (List<?>) value;
+      Object result = CONTAINERS.get(((ParameterizedType) type).getRawType()).get();
+      if (result instanceof Map) {
+        Map<Object, Object> map = (Map<Object, Object>) result;
+        for (int i = 0; i + 1 < list.size(); i += 2) {
+          map.put(fromJsonResult(list.get(i), args[0]), fromJsonResult(list.get(i + 1), args[1]));
+        }
+      } else {
+        Collection<Object> collection = (Collection<Object>) result;
+        for (Object e : list) {
+          collection.add(fromJsonResult(e, args[0]));
+        }
+      }
+      return result;
+    } else if (type instanceof GenericArrayType || !isJsonArgumentType((Class<?>) type)) {
+      Type componentType = type instanceof GenericArrayType
+          ? ((GenericArrayType) type).getGenericComponentType()
+          : ((Class<?>) type).getComponentType();
+      List<?> list = (List<?>) value;
+      Object array = Array.newInstance(erase(componentType), list.size());
+      for (int i = 0; i < list.size(); i++) {
+        Array.set(array, i, fromJsonResult(list.get(i), componentType));
+      }
+      return array;
+    } else {
+      return fromJsonArgument(toJsonValue(value), (Class<?>) type);
+    }
+  }
+
   static JsonArrayList<?> castList(List<?> value, Type returnType) {
     if (returnType instanceof ParameterizedType) {
       Type arg = ((ParameterizedType) returnType).getActualTypeArguments()[0];
@@ -130,6 +438,43 @@ class TypeConversion {
     return JsonArrayList.wrapForTestbench(value);
   }
 
+  /**
+   * Returns the type of the values produced by a callable method. For asynchronous methods, this
+   * is the type argument of {@code CompletableFuture} ({@code void} for {@code Void}).
+   */
+  static Type getResultType(Method method) {
+    if (method.getReturnType() == CompletableFuture.class) {
+      Type type = ((ParameterizedType) method.getGenericReturnType()).getActualTypeArguments()[0];
+      return type == Void.class ? Void.TYPE : type;
+    }
+    return method.getGenericReturnType();
+  }
+
+  /** Returns the erasure of {@link #getResultType(Method)}. */
+  static Class<?> getResultClass(Method method) {
+    if (method.getReturnType() == CompletableFuture.class) {
+      return erase(getResultType(method));
+    }
+    return method.getReturnType();
+  }
+
+  private static Class<?> erase(Type type) {
+    if (type instanceof Class) {
+      return (Class<?>) type;
+    } else if (type instanceof ParameterizedType) {
+      return erase(((ParameterizedType) type).getRawType());
+    } else if (type instanceof GenericArrayType) {
+      Type componentType = ((GenericArrayType) type).getGenericComponentType();
+      return Array.newInstance(erase(componentType), 0).getClass();
+    } else if (type instanceof TypeVariable) {
+      return erase(((TypeVariable<?>) type).getBounds()[0]);
+    } else if (type instanceof WildcardType) {
+      return erase(((WildcardType) type).getUpperBounds()[0]);
+    } else {
+      return Object.class;
+    }
+  }
+
   private boolean isValidType(Class<?> type) {
     return type==void.class
         || type == boolean.class
@@ -159,8 +504,8 @@ class TypeConversion {
       }
     }
 
-    if (method.getReturnType()==JsonArrayList.class) {
-      Type returnType = method.getGenericReturnType();
+    if (getResultClass(method)==JsonArrayList.class) {
+      Type returnType = getResultType(method);
       if (returnType instanceof ParameterizedType) {
         Type elementType = ((ParameterizedType) returnType).getActualTypeArguments()[0];
         if (elementType == Long.class || elementType == long.class
@@ -172,9 +517,9 @@ class TypeConversion {
           String.format("Return type %s is not supported by TestBench-RPC.", returnType));
     }
 
-    if (!isValidType(method.getReturnType())) {
+    if (!isValidType(getResultClass(method))) {
       throw new IllegalRpcSignatureException(String
-          .format("Return type %s is not supported by TestBench-RPC.", method.getReturnType()));
+          .format("Return type %s is not supported by TestBench-RPC.", getResultType(method)));
     }
   }
 
@@ -197,14 +542,32 @@ class TypeConversion {
       }
     }
 
-    if (!isValidRmiType(method.getReturnType())) {
+    // collections and maps of JSON types are transferred as JSON, even if they are not serializable
+    if (!isValidRmiType(getResultClass(method)) && !isJsonResultType(getResultType(method))) {
       throw new IllegalRpcSignatureException(
           String.format("Return type %s is not primitive, remote or serializable.",
-              method.getReturnType()));
+              getResultType(method)));
     }
   }
 
-  static void checkMethod(Method method, boolean rmiSupported) {
+  static void checkMethod(Method method, boolean rmiSupported, boolean async) {
+    if (method.getDeclaringClass() != SideChannelSupport.class
+        && method.getDeclaringClass() != RmiEventSupport.class) {
+      boolean returnsFuture = method.getReturnType() == CompletableFuture.class;
+      if (async && !returnsFuture) {
+        throw new IllegalRpcSignatureException(String.format(
+            "Return type %s is not supported by asynchronous proxies.", method.getReturnType()));
+      }
+      if (!async && returnsFuture) {
+        throw new IllegalRpcSignatureException(String.format(
+            "Return type %s is only supported by asynchronous proxies.", method.getReturnType()));
+      }
+      if (returnsFuture && !(method.getGenericReturnType() instanceof ParameterizedType)) {
+        throw new IllegalRpcSignatureException(String.format(
+            "Return type %s is not supported by TestBench-RPC.", method.getGenericReturnType()));
+      }
+    }
+
     if (rmiSupported) {
       checkRmiMethod(method);
     } else {
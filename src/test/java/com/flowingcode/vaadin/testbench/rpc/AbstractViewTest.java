@@ -91,6 +91,10 @@ public abstract class AbstractViewTest extends ParallelTest {
 
   @After
   public void after() {
+    if (this instanceof HasRpcSupport) {
+      // exported listeners are held until they are unexported
+      ((HasRpcSupport) this).unexportListeners();
+    }
     getDriver().close();
   }
 
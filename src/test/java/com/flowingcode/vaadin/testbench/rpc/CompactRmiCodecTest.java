@@ -0,0 +1,196 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+public class CompactRmiCodecTest {
+
+  private static final RmiCodec.Context CONTEXT = name -> RmiCallable$companion.classForName(name,
+      CompactRmiCodecTest.class);
+
+  @SuppressWarnings("serial")
+  public static class Bean implements Serializable {
+    int id;
+    String name;
+    double[] values;
+    transient Object ignored;
+    List<Bean> children = new ArrayList<>();
+    Bean parent;
+  }
+
+  @SuppressWarnings("serial")
+  public static class Customized implements Serializable {
+    String value;
+
+    private void writeObject(java.io.ObjectOutputStream out) throws IOException {
+      out.defaultWriteObject();
+    }
+  }
+
+  private static byte[] encode(RmiCodec codec, Object value) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    codec.encode(value, baos, CONTEXT);
+    return baos.toByteArray();
+  }
+
+  private static Object roundTrip(Object value) throws Exception {
+    byte[] data = encode(new CompactRmiCodec(), value);
+    return new CompactRmiCodec().decode(new ByteArrayInputStream(data), CONTEXT);
+  }
+
+  @Test
+  public void testPrimitives() throws Exception {
+    Object[] values = new Object[] {null, true, false, (byte) -1, (short) 300, 'x', 0, -1,
+        Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MIN_VALUE, 1.5f, Double.NaN, "",
+        "\u00e4\u00df\u20ac", TimeUnit.SECONDS, String.class, int.class};
+    assertThat((Object[]) roundTrip(values), Matchers.arrayContaining(values));
+  }
+
+  @Test
+  public void testArrays() throws Exception {
+    Object[] values = new Object[] {new byte[] {1, 2, 3}, new int[] {-1, 0, 1}, new long[] {42},
+        new double[] {0.5}, new boolean[] {true, false}, new char[] {'a'}, new String[] {"a", null},
+        new int[][] {{1}, {2, 3}}};
+    Object[] result = (Object[]) roundTrip(values);
+    for (int i = 0; i < values.length; i++) {
+      assertThat(result[i].getClass(), Matchers.equalTo(values[i].getClass()));
+      assertThat(Arrays.deepEquals(new Object[] {result[i]}, new Object[] {values[i]}),
+          Matchers.is(true));
+    }
+  }
+
+  @Test
+  public void testCollections() throws Exception {
+    Map<String, Object> map = new HashMap<>();
+    map.put("list", new ArrayList<>(Arrays.asList(1, 2, 3)));
+    map.put("set", new LinkedHashSet<>(Arrays.asList("b", "a")));
+    map.put("sorted", new TreeMap<>(Collections.singletonMap(1L, "one")));
+    map.put("immutable", Collections.singletonList("x"));
+    map.put("decimal", new BigDecimal("1.25"));
+    assertThat(roundTrip(map), Matchers.equalTo(map));
+  }
+
+  @Test
+  public void testBeans() throws Exception {
+    Bean parent = new Bean();
+    parent.id = 1;
+    parent.name = "parent";
+    parent.values = new double[] {1, 2};
+    parent.ignored = new Object();
+    for (int i = 0; i < 3; i++) {
+      Bean child = new Bean();
+      child.id = i + 2;
+      child.parent = parent;
+      parent.children.add(child);
+    }
+
+    Bean result = (Bean) roundTrip(parent);
+    assertThat(result.id, Matchers.equalTo(1));
+    assertThat(result.name, Matchers.equalTo("parent"));
+    assertThat(result.values[1], Matchers.equalTo(2.0));
+    assertThat(result.ignored, Matchers.nullValue());
+    assertThat(result.children, Matchers.hasSize(3));
+    // cyclic references are preserved
+    assertThat(result.children.get(2).parent, Matchers.sameInstance(result));
+  }
+
+  @Test
+  public void testSharedReferences() throws Exception {
+    int[] shared = new int[] {1};
+    Object[] result = (Object[]) roundTrip(new Object[] {shared, shared});
+    assertThat(result[0], Matchers.sameInstance(result[1]));
+  }
+
+  @Test
+  public void testCustomSerialization() throws Exception {
+    Customized value = new Customized();
+    value.value = "value";
+    assertThat(((Customized) roundTrip(value)).value, Matchers.equalTo("value"));
+  }
+
+  @Test(expected = NotSerializableException.class)
+  public void testNotSerializable() throws Exception {
+    roundTrip(new Object());
+  }
+
+  @Test
+  public void testReplaceObject() throws Exception {
+    RmiCodec.Context context = new RmiCodec.Context() {
+      @Override
+      public Object replaceObject(Object obj) {
+        return obj instanceof RmiRemote ? new RmiStubReplacement("id") : obj;
+      }
+
+      @Override
+      public Object resolveObject(Object obj) {
+        return obj instanceof RmiStubReplacement ? "resolved" : obj;
+      }
+
+      @Override
+      public Class<?> resolveClass(String name) throws ClassNotFoundException {
+        return CONTEXT.resolveClass(name);
+      }
+    };
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    new CompactRmiCodec().encode(new Object[] {new RmiRemote() {}}, baos, context);
+    Object[] result = (Object[]) new CompactRmiCodec()
+        .decode(new ByteArrayInputStream(baos.toByteArray()), context);
+    assertThat(result[0], Matchers.equalTo("resolved"));
+  }
+
+  @Test
+  public void testSize() throws Exception {
+    List<Bean> beans = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      Bean bean = new Bean();
+      bean.id = i;
+      bean.name = "bean" + i;
+      beans.add(bean);
+    }
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+      oos.writeObject(beans);
+    }
+    assertThat(encode(new CompactRmiCodec(), beans).length,
+        Matchers.lessThan(baos.size() / 2));
+  }
+
+}
@@ -0,0 +1,89 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Random;
+import org.apache.commons.compress.utils.IOUtils;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+/** Encodes and decodes Base64 through RmiBuffer, and checks the pool of buffers. */
+public class RmiBufferTest {
+
+  @Test
+  public void testBase64() throws IOException {
+    for (int length = 0; length < 8; length++) {
+      byte[] data = new byte[length];
+      for (int i = 0; i < length; i++) {
+        data[i] = (byte) (i * 37 - 128);
+      }
+
+      RmiBuffer buffer = RmiBuffer.acquire();
+      buffer.write(data);
+      String encoded = buffer.toBase64(0, length);
+      buffer.release();
+
+      assertThat(encoded, Matchers.is(Base64.getEncoder().encodeToString(data)));
+      assertThat(RmiBuffer.decodedLength(encoded), Matchers.is(length));
+      assertThat(IOUtils.toByteArray(RmiBuffer.decode(encoded)), Matchers.is(data));
+    }
+  }
+
+  @Test
+  public void testPool() {
+    // buffers are reused by the same thread
+    RmiBuffer buffer = RmiBuffer.acquire();
+    buffer.release();
+    assertThat(RmiBuffer.acquire(), Matchers.sameInstance(buffer));
+
+    // buffers that grew beyond the maximum capacity are not pooled
+    buffer.write(new byte[RmiBuffer.MAX_POOLED_CAPACITY + 1], 0, RmiBuffer.MAX_POOLED_CAPACITY + 1);
+    buffer.release();
+    assertThat(RmiBuffer.acquire(), Matchers.not(Matchers.sameInstance(buffer)));
+
+    // buffers allocated on the server are not pooled
+    buffer = RmiBuffer.allocate();
+    buffer.release();
+    assertThat(RmiBuffer.acquire(), Matchers.not(Matchers.sameInstance(buffer)));
+  }
+
+  @Test
+  public void testDecodeLarge() throws IOException {
+    // the string is decoded in several blocks
+    byte[] large = new byte[100000];
+    new Random(0).nextBytes(large);
+    String encoded = Base64.getEncoder().encodeToString(large);
+    assertThat(IOUtils.toByteArray(RmiBuffer.decode(encoded)), Matchers.is(large));
+  }
+
+  @Test
+  public void testDecodeInvalid() {
+    try {
+      IOUtils.toByteArray(RmiBuffer.decode("AA\u0141A"));
+      throw new AssertionError();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+}
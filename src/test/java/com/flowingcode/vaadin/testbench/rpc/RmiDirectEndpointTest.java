@@ -0,0 +1,172 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.server.VaadinSession;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Calls a view through {@link RmiDirectEndpoint} in the same JVM as the test. The endpoint URL
+ * is not reachable, so the calls only succeed if they are dispatched in-process.
+ */
+@SuppressWarnings("serial")
+public class RmiDirectEndpointTest implements HasRpcSupport {
+
+  public interface Callables extends RmiCallable {
+    String concat(String a, String b);
+
+    void fail();
+  }
+
+  public static class View extends Div implements Callables {
+    @Override
+    public String concat(String a, String b) {
+      return a + b;
+    }
+
+    @Override
+    public void fail() {
+      throw new IllegalStateException();
+    }
+  }
+
+  /** A session that is always locked by the current thread, and runs commands immediately. */
+  private static class LockedSession extends VaadinSession {
+
+    LockedSession() {
+      super(null);
+    }
+
+    @Override
+    public boolean hasLock() {
+      return true;
+    }
+
+    @Override
+    public void lock() {}
+
+    @Override
+    public void unlock() {}
+
+    @Override
+    public Future<Void> access(Command command) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      try {
+        command.execute();
+        future.complete(null);
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+      return future;
+    }
+  }
+
+  private final RmiDirectEndpoint endpoint = new RmiDirectEndpoint();
+
+  private WebDriver driver;
+
+  @Before
+  public void setup() {
+    UI ui = new UI();
+    ui.getInternals().setSession(new LockedSession());
+    View view = new View();
+    ui.add(view);
+    RpcViewInitializer.register(view);
+
+    Map<String, Object> direct = new HashMap<>();
+    direct.put("ui", (long) ui.getUIId());
+    direct.put("token", endpoint.publishToken(ui));
+    direct.put("url", "http://localhost:1/");
+    driver = createDriver(direct);
+
+    endpoint.publishInProcess(null);
+  }
+
+  @After
+  public void teardown() {
+    endpoint.unpublishInProcess(null);
+  }
+
+  /** Creates a driver that only supports the handshake of the direct channel. */
+  private static WebDriver createDriver(Map<String, Object> direct) {
+    WebDriver.Options options = (WebDriver.Options) Proxy.newProxyInstance(
+        WebDriver.class.getClassLoader(), new Class<?>[] {WebDriver.Options.class},
+        (proxy, method, args) -> {
+          if (method.getName().equals("getCookies")) {
+            return Collections.emptySet();
+          }
+          throw new UnsupportedOperationException(method.getName());
+        });
+
+    return (WebDriver) Proxy.newProxyInstance(WebDriver.class.getClassLoader(),
+        new Class<?>[] {WebDriver.class, JavascriptExecutor.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "executeScript":
+              return direct;
+            case "manage":
+              return options;
+            case "getCurrentUrl":
+              return direct.get("url");
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  @Override
+  public WebDriver getDriver() {
+    return driver;
+  }
+
+  @Test
+  public void testInProcess() {
+    Callables $server = createDirectCallableProxy(Callables.class);
+    assertEquals("HelloWorld", $server.concat("Hello", "World"));
+    assertThrows(RpcException.class, () -> $server.fail());
+  }
+
+  @Test
+  public void testUnpublished() {
+    // without the in-process dispatcher, the call goes through HTTP and fails
+    endpoint.unpublishInProcess(null);
+    Callables $server = createDirectCallableProxy(Callables.class);
+    assertThrows(RuntimeException.class, () -> $server.concat("Hello", "World"));
+  }
+
+}
@@ -20,13 +20,25 @@
 package com.flowingcode.vaadin.testbench.rpc;
 
 import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_CLASS_NAME;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_CODEC;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_DICTIONARY_ACK;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_DICTIONARY_ID;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_EXCEPTION;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_HANDSHAKE;
 import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_INSTANCE_ID;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_JSON_RESULT;
 import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_METHOD_ARGUMENTS;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_METHOD_ID;
 import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_METHOD_NAME;
 import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_METHOD_SIGNATURE;
 import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_RESPONSE_DATA;
 import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_RESPONSE_ERROR;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_RESPONSE_JSON;
 import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_RESPONSE_MARKER;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_TRANSFER_ID;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_TRANSFER_LENGTH;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_TRANSFER_OFFSET;
+import static com.flowingcode.vaadin.testbench.rpc.RmiConstants.RMI_UPLOAD_ID;
 import static org.hamcrest.MatcherAssert.assertThat;
 import com.vaadin.flow.component.Component;
 import com.vaadin.flow.component.html.Div;
@@ -43,8 +55,13 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.With;
@@ -76,6 +93,14 @@ public class RmiErrorTest {
       throw new Error();
     }
 
+    public void throwNested(int depth) {
+      if (depth > 0) {
+        throwNested(depth - 1);
+      } else {
+        throw new IllegalStateException("outer", new IllegalArgumentException("inner"));
+      }
+    }
+
     public void methodWithArguments(Serializable args) {
 
     }
@@ -94,6 +119,22 @@ public class RmiErrorTest {
 
     }
 
+    public MyLargeSerializable largeResult() {
+      return new MyLargeSerializable();
+    }
+
+    public MySerializable serializableResult() {
+      return new MySerializable();
+    }
+
+    public List<String> listResult() {
+      return Arrays.asList("a", null, "b");
+    }
+
+    public String jsonArguments(int arg1, String arg2, MyEnum arg3, double[] arg4, byte[] arg5) {
+      return arg1 + arg2 + arg3 + Arrays.toString(arg4) + Arrays.toString(arg5);
+    }
+
   }
 
   public static interface MyRemote extends RmiRemote {
@@ -105,6 +146,14 @@ public class RmiErrorTest {
   public static class MySerializable implements Serializable {
   }
 
+  public static enum MyEnum {
+    FOO
+  }
+
+  public static class MyLargeSerializable implements Serializable {
+    byte[] data = new byte[RmiStagingArea.CHUNK_SIZE * 2 + 1];
+  }
+
   private Matcher<JsonValue> hasMarker() {
     return new JsonObjectMatcher(RMI_RESPONSE_MARKER, RmiCallable.class.getName());
   }
@@ -126,24 +175,26 @@ public class RmiErrorTest {
       protected boolean matchesSafely(JsonValue item, Description mismatchDescription) {
         if (super.matchesSafely(item, mismatchDescription)) {
           JsonObject obj = (JsonObject) item;
-          if (!error.hasException() && obj.hasKey(RMI_RESPONSE_DATA)) {
+          if (!error.hasException() && obj.hasKey(RMI_EXCEPTION)) {
             mismatchDescription.appendText(" with exception data");
             return false;
           }
-          if (error.hasException() && !obj.hasKey(RMI_RESPONSE_DATA)) {
+          if (error.hasException() && !obj.hasKey(RMI_EXCEPTION)) {
             mismatchDescription.appendText(" with no exception data");
             return false;
           }
+          if (obj.hasKey(RMI_RESPONSE_DATA)) {
+            mismatchDescription.appendText(" with response data");
+            return false;
+          }
           if (error.hasException()) {
-            String data = ((JsonObject) item).getString(RMI_RESPONSE_DATA);
+            String className = obj.getArray(RMI_EXCEPTION).getArray(0).getString(0);
             try {
-              ObjectInputStream ois =
-                  new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(data)));
-              Class<?> clazz = ois.readObject().getClass();
+              Class<?> clazz = Class.forName(className);
               if (Throwable.class.isAssignableFrom(clazz)) {
                 return true;
               } else {
-                mismatchDescription.appendText("data is " + clazz.getName());
+                mismatchDescription.appendText("exception is " + clazz.getName());
                 return false;
               }
             } catch (Exception e) {
@@ -168,6 +219,13 @@ public class RmiErrorTest {
     String[] methodSignature;
     Object[] methodArguments;
     String rawMethodArguments;
+    JsonArray jsonMethodArguments;
+    String uploadId;
+    String codec;
+    String dictionaryId;
+    Integer methodId;
+    boolean jsonResult;
+    int dictionaryAck;
 
     JsonValue call(RmiCallable callable) {
       JsonObject obj = Json.createObject();
@@ -178,33 +236,57 @@ public class RmiErrorTest {
         obj.put(RMI_CLASS_NAME, className);
       }
 
-      if (methodName == null) {
-        methodName = "method";
-      }
-      obj.put(RMI_METHOD_NAME, methodName);
+      if (methodId != null) {
+        obj.put(RMI_METHOD_ID, methodId);
+      } else {
+        if (methodName == null) {
+          methodName = "method";
+        }
+        obj.put(RMI_METHOD_NAME, methodName);
 
-      if (methodSignature == null) {
-        methodSignature = new String[0];
-      }
+        if (methodSignature == null) {
+          methodSignature = new String[0];
+        }
 
-      JsonArray signatureArray = Json.createArray();
-      obj.put(RMI_METHOD_SIGNATURE, signatureArray);
-      for (String s : methodSignature) {
-        signatureArray.set(signatureArray.length(), s);
+        JsonArray signatureArray = Json.createArray();
+        obj.put(RMI_METHOD_SIGNATURE, signatureArray);
+        for (String s : methodSignature) {
+          signatureArray.set(signatureArray.length(), s);
+        }
       }
 
       if (rawMethodArguments != null) {
         obj.put(RMI_METHOD_ARGUMENTS, rawMethodArguments);
+      } else if (jsonMethodArguments != null) {
+        obj.put(RMI_METHOD_ARGUMENTS, jsonMethodArguments);
       } else if (methodArguments != null) {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
-          oos.writeObject(methodArguments);
+        try {
+          RmiCodec argumentCodec = codec == null ? RmiCodecs.JAVA : RmiCodecs.get(codec);
+          argumentCodec.encode(methodArguments, baos, Class::forName);
         } catch (IOException e) {
           throw new UndeclaredThrowableException(e);
         }
         obj.put(RMI_METHOD_ARGUMENTS, Base64.getEncoder().encodeToString(baos.toByteArray()));
       }
 
+      if (uploadId != null) {
+        obj.put(RMI_UPLOAD_ID, uploadId);
+      }
+
+      if (codec != null) {
+        obj.put(RMI_CODEC, codec);
+      }
+
+      if (jsonResult) {
+        obj.put(RMI_JSON_RESULT, true);
+      }
+
+      if (dictionaryId != null) {
+        obj.put(RMI_DICTIONARY_ID, dictionaryId);
+        obj.put(RMI_DICTIONARY_ACK, dictionaryAck);
+      }
+
       return callable.$call(obj);
     }
 
@@ -213,6 +295,32 @@ public class RmiErrorTest {
     }
   }
 
+  private static JsonValue upload(RmiCallable callable, String uploadId, byte[] data,
+      int offset) {
+    int length = Math.min(RmiStagingArea.CHUNK_SIZE, data.length - offset);
+    JsonObject obj = Json.createObject();
+    obj.put(RMI_UPLOAD_ID, uploadId);
+    obj.put(RMI_TRANSFER_LENGTH, data.length);
+    obj.put(RMI_TRANSFER_OFFSET, offset);
+    obj.put(RMI_METHOD_ARGUMENTS, RmiStagingArea.encode(data, offset, length));
+    return callable.$call(obj);
+  }
+
+  private static byte[] serialize(Object obj) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+      oos.writeObject(obj);
+    }
+    return baos.toByteArray();
+  }
+
+  private static JsonValue fetch(RmiCallable callable, String transferId, int offset) {
+    JsonObject obj = Json.createObject();
+    obj.put(RMI_TRANSFER_ID, transferId);
+    obj.put(RMI_TRANSFER_OFFSET, offset);
+    return callable.$call(obj);
+  }
+
   private static class JsonObjectMatcher extends TypeSafeDiagnosingMatcher<JsonValue> {
 
     private final String key;
@@ -340,6 +448,469 @@ public class RmiErrorTest {
 
 
 
+  @Test
+  public void test10_StagedTransfer() throws Exception {
+    RmiCallable callable = new RmiCallableTest();
+    JsonValue response = new Request().withMethodName("largeResult").call(callable);
+    assertThat(response, hasMarker());
+    assertThat(response, new JsonObjectMatcher(RMI_TRANSFER_ID, null));
+
+    JsonObject obj = (JsonObject) response;
+    String transferId = obj.getString(RMI_TRANSFER_ID);
+    int length = (int) obj.getNumber(RMI_TRANSFER_LENGTH);
+
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(Base64.getDecoder().decode(obj.getString(RMI_RESPONSE_DATA)));
+    while (baos.size() < length) {
+      JsonValue chunk = fetch(callable, transferId, baos.size());
+      assertThat(chunk, hasMarker());
+      baos.write(Base64.getDecoder().decode(((JsonObject) chunk).getString(RMI_RESPONSE_DATA)));
+    }
+
+    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+    MyLargeSerializable result = (MyLargeSerializable) ois.readObject();
+    assertThat(result.data.length, Matchers.equalTo(RmiStagingArea.CHUNK_SIZE * 2 + 1));
+
+    // the transfer is discarded after its last chunk is fetched
+    assertThat(fetch(callable, transferId, 0), hasError(RmiError.E_TRANSFER_NOT_EXIST));
+  }
+
+  @Test
+  public void test10_TransferNotExist() {
+    JsonValue response = fetch(new RmiCallableTest(), "foo", 0);
+    assertThat(response, hasMarker());
+    assertThat(response, hasError(RmiError.E_TRANSFER_NOT_EXIST));
+  }
+
+  @Test
+  public void test10_TransferInvalidOffset() {
+    RmiCallable callable = new RmiCallableTest();
+    JsonObject response =
+        (JsonObject) new Request().withMethodName("largeResult").call(callable);
+    JsonValue chunk = fetch(callable, response.getString(RMI_TRANSFER_ID), 1);
+    assertThat(chunk, hasError(RmiError.E_PROTOCOL_ERROR));
+  }
+
+  @Test
+  public void test11_StagedUpload() throws Exception {
+    RmiCallable callable = new RmiCallableTest();
+    byte[] data = serialize(new Object[] {new MyLargeSerializable()});
+
+    for (int offset = 0; offset < data.length; offset += RmiStagingArea.CHUNK_SIZE) {
+      assertThat(upload(callable, "upload", data, offset), hasMarker());
+    }
+    // a chunk that is sent again is ignored
+    assertThat(upload(callable, "upload", data, 0), hasMarker());
+
+    JsonValue response = new Request()
+        .withMethodName("methodWithArguments")
+        .withMethodSignature(new String[] {"java.io.Serializable"})
+        .withUploadId("upload")
+        .call(callable);
+    assertThat(response, Matchers.instanceOf(JsonNull.class));
+  }
+
+  @Test
+  public void test11_IncompleteUpload() throws Exception {
+    RmiCallable callable = new RmiCallableTest();
+    byte[] data = serialize(new Object[] {new MyLargeSerializable()});
+    assertThat(upload(callable, "upload", data, 0), hasMarker());
+
+    JsonValue response = new Request()
+        .withMethodName("methodWithArguments")
+        .withMethodSignature(new String[] {"java.io.Serializable"})
+        .withUploadId("upload")
+        .call(callable);
+    assertThat(response, hasMarker());
+    assertThat(response, hasError(RmiError.E_TRANSFER_NOT_EXIST));
+  }
+
+  @Test
+  public void test11_UploadBytesLimit() {
+    // the oldest uploads are discarded when the staged bytes would exceed the limit
+    int size = RmiStagingArea.CHUNK_SIZE;
+    RmiStagingArea staging = new RmiStagingArea(2L * size);
+    staging.receive("a", size, 0, new byte[size]);
+    staging.receive("b", 2 * size, 0, new byte[size]);
+    staging.receive("b", 2 * size, size, new byte[size]);
+    try {
+      staging.takeUpload("a");
+      throw new AssertionError();
+    } catch (RpcException e) {
+      // expected
+    }
+    assertThat(staging.takeUpload("b").length, Matchers.is(2 * size));
+
+    // an upload that cannot be held is rejected
+    try {
+      staging.receive("c", 3 * size, 0, new byte[size]);
+      throw new AssertionError();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void test11_UploadInvalidChunk() throws Exception {
+    byte[] data = serialize(new Object[] {new MyLargeSerializable()});
+    JsonValue response = upload(new RmiCallableTest(), "upload", data, 1);
+    assertThat(response, hasError(RmiError.E_PROTOCOL_ERROR));
+  }
+
+  @Test
+  public void test12_CodecNotExist() {
+    JsonValue response = new Request().withCodec("foo").call();
+    assertThat(response, hasMarker());
+    assertThat(response, hasError(RmiError.E_CODEC_NOT_EXIST));
+  }
+
+  @Test
+  public void test12_CompactCodec() throws Exception {
+    RmiCallable callable = new RmiCallableTest();
+    RmiObjectRegistry registry = RmiObjectRegistry.getInstance((Component) callable);
+    String instanceId = registry.register(new MyRemoteImpl());
+
+    String[] signature = new String[] {MyRemote.class.getName(), MySerializable.class.getName()};
+    Object[] args = new Object[] {new RmiStubReplacement(instanceId), new MySerializable()};
+
+    JsonValue response = new Request().withMethodName("testRemote")
+        .withMethodSignature(signature)
+        .withMethodArguments(args)
+        .withCodec(CompactRmiCodec.ID)
+        .call(callable);
+    assertThat(response, Matchers.instanceOf(JsonNull.class));
+
+    // the result is encoded with the codec of the invocation
+    response = new Request().withMethodName("serializableResult")
+        .withCodec(CompactRmiCodec.ID)
+        .call(callable);
+    assertThat(response, hasMarker());
+    assertThat(response, new JsonObjectMatcher(RMI_CODEC, CompactRmiCodec.ID));
+
+    byte[] data = Base64.getDecoder().decode(((JsonObject) response).getString(RMI_RESPONSE_DATA));
+    Object result = new CompactRmiCodec().decode(new ByteArrayInputStream(data), Class::forName);
+    assertThat(result, Matchers.instanceOf(MySerializable.class));
+  }
+
+  @Test
+  public void test13_DictionaryNotExist() {
+    // the invocation acknowledges descriptors of a dictionary that is unknown to the view
+    JsonValue response = new Request().withDictionaryId("foo").withDictionaryAck(1).call();
+    assertThat(response, hasMarker());
+    assertThat(response, hasError(RmiError.E_DICTIONARY_NOT_EXIST));
+  }
+
+  @Test
+  public void test13_DictionaryCreated() {
+    JsonValue response = new Request().withMethodName("serializableResult")
+        .withDictionaryId("foo")
+        .call();
+    assertThat(response, hasMarker());
+    assertThat(response, new JsonObjectMatcher(RMI_DICTIONARY_ID, "foo"));
+  }
+
+  private static final String[] JSON_SIGNATURE = new String[] {"int", String.class.getName(),
+      MyEnum.class.getName(), double[].class.getName(), byte[].class.getName()};
+
+  private static JsonArray jsonArguments(Object... args) {
+    return (JsonArray) TypeConversion.toJsonValue(Arrays.asList(args));
+  }
+
+  @Test
+  public void test14_JsonArguments() {
+    JsonArray args = jsonArguments(
+        TypeConversion.toJsonArgument(1),
+        TypeConversion.toJsonArgument("a"),
+        TypeConversion.toJsonArgument(MyEnum.FOO),
+        TypeConversion.toJsonArgument(new double[] {0.5}),
+        TypeConversion.toJsonArgument(new byte[] {-1}));
+
+    JsonValue response = new Request().withMethodName("jsonArguments")
+        .withMethodSignature(JSON_SIGNATURE)
+        .withJsonMethodArguments(args)
+        .call();
+    assertThat(response.asString(), Matchers.equalTo("1aFOO[0.5][-1]"));
+  }
+
+  @Test
+  public void test14_UnsafeLongArgument() {
+    // longs that cannot be represented exactly as a JSON number are serialized instead
+    long safe = (1L << 53) - 1;
+    assertThat(TypeConversion.toJsonArgument(-safe), Matchers.equalTo((Object) (-safe)));
+    for (long value : new long[] {safe + 1, -safe - 1, Long.MAX_VALUE, Long.MIN_VALUE}) {
+      try {
+        TypeConversion.toJsonArgument(value);
+        throw new AssertionError(value);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void test14_JsonArgumentsNotExact() {
+    // 1.5 is not an int
+    JsonArray args = jsonArguments(1.5, "a", "FOO", Arrays.asList(0.5), "");
+    JsonValue response = new Request().withMethodName("jsonArguments")
+        .withMethodSignature(JSON_SIGNATURE)
+        .withJsonMethodArguments(args)
+        .call();
+    assertThat(response, hasMarker());
+    assertThat(response, hasError(RmiError.E_UNMARSHAL));
+  }
+
+  @Test
+  public void test14_JsonArgumentsMismatch() {
+    JsonArray args = jsonArguments(1, "a");
+    JsonValue response = new Request().withMethodName("jsonArguments")
+        .withMethodSignature(JSON_SIGNATURE)
+        .withJsonMethodArguments(args)
+        .call();
+    assertThat(response, hasMarker());
+    assertThat(response, hasError(RmiError.E_UNMARSHAL));
+  }
+
+  @Test
+  public void test14_NotJsonArgument() {
+    // long values beyond 2^53 are serialized
+    assertThat(RpcMethodPlan.of(getJsonLongMethod()).toJsonArguments(new Object[] {1L << 53}),
+        Matchers.nullValue());
+    assertThat(RpcMethodPlan.of(getJsonLongMethod()).toJsonArguments(new Object[] {1L}),
+        Matchers.contains(1L));
+  }
+
+  @Test
+  public void test15_JsonResult() throws Exception {
+    JsonValue response = new Request().withMethodName("listResult").withJsonResult(true).call();
+    assertThat(response, hasMarker());
+    JsonArray json = ((JsonObject) response).getArray(RMI_RESPONSE_JSON);
+
+    Type type = RmiCallableTest.class.getMethod("listResult").getGenericReturnType();
+    Object result = TypeConversion.fromJsonResult(TypeConversion.fromJsonValue(json), type);
+    assertThat(result, Matchers.equalTo(Arrays.asList("a", null, "b")));
+  }
+
+  @Test
+  public void test15_SerializedResult() {
+    // the client did not declare that it accepts a JSON result
+    JsonValue response = new Request().withMethodName("listResult").call();
+    assertThat(response, hasMarker());
+    assertThat(((JsonObject) response).hasKey(RMI_RESPONSE_JSON), Matchers.is(false));
+    assertThat(((JsonObject) response).hasKey(RMI_RESPONSE_DATA), Matchers.is(true));
+  }
+
+  private static JsonValue handshake(RmiCallable callable, String dictionaryId,
+      String... methodNames) {
+    JsonArray methods = Json.createArray();
+    for (String methodName : methodNames) {
+      JsonArray entry = Json.createArray();
+      entry.set(0, methodName);
+      entry.set(1, Json.createArray());
+      methods.set(methods.length(), entry);
+    }
+
+    JsonObject obj = Json.createObject();
+    obj.put(RMI_HANDSHAKE, methods);
+    obj.put(RMI_DICTIONARY_ID, dictionaryId);
+    return callable.$call(obj);
+  }
+
+  @Test
+  public void test16_Handshake() {
+    RmiCallable callable = new RmiCallableTest();
+    JsonValue response = handshake(callable, "foo", "serializableResult", "notAMethod");
+    assertThat(response.getType(), Matchers.is(JsonType.ARRAY));
+    assertThat(((JsonArray) response).getNumber(0), Matchers.is(0.0));
+    assertThat(((JsonArray) response).getNumber(1), Matchers.is(-1.0));
+
+    response = new Request().withMethodId(0).withDictionaryId("foo").call(callable);
+    assertThat(response, hasMarker());
+    assertThat(((JsonObject) response).hasKey(RMI_RESPONSE_DATA), Matchers.is(true));
+  }
+
+  @Test
+  public void test16_MethodIdDictionaryNotExist() {
+    // method ids are only valid in the dictionary where they were assigned
+    RmiCallable callable = new RmiCallableTest();
+    handshake(callable, "foo", "serializableResult");
+    JsonValue response = new Request().withMethodId(0).withDictionaryId("bar").call(callable);
+    assertThat(response, hasMarker());
+    assertThat(response, hasError(RmiError.E_DICTIONARY_NOT_EXIST));
+  }
+
+  @Test
+  public void test16_HandshakeClassWithoutInstance() {
+    // methods of another class are only resolved for a remote object of that class
+    JsonObject obj = Json.createObject();
+    obj.put(RMI_HANDSHAKE, Json.createArray());
+    obj.put(RMI_DICTIONARY_ID, "foo");
+    obj.put(RMI_CLASS_NAME, System.class.getName());
+    JsonValue response = new RmiCallableTest().$call(obj);
+    assertThat(response, hasMarker());
+    assertThat(response, hasError(RmiError.E_PROTOCOL_ERROR));
+  }
+
+  @Test
+  public void test16_MethodIdOfAnotherClass() throws Exception {
+    // a method id that belongs to another class is not invoked on the view
+    RmiCallableTest callable = new RmiCallableTest();
+    handshake(callable, "foo", "serializableResult");
+    int methodId = RmiClassDictionary.getInstance(callable, "foo", 0, true)
+        .register(System.class.getMethod("lineSeparator"));
+    JsonValue response =
+        new Request().withMethodId(methodId).withDictionaryId("foo").call(callable);
+    assertThat(response, hasMarker());
+    assertThat(response, hasError(RmiError.E_NO_SUCH_METHOD));
+  }
+
+  @Test
+  public void test17_MethodCache() throws Exception {
+    JsonArray signature = Json.createArray();
+    signature.set(0, MyRemote.class.getName());
+    signature.set(1, MySerializable.class.getName());
+
+    Method method = RmiCallable$companion.getMethod(RmiCallableTest.class, "testRemote", signature);
+    assertThat(method, Matchers.equalTo(
+        RmiCallableTest.class.getMethod("testRemote", MyRemote.class, MySerializable.class)));
+    assertThat(RmiCallable$companion.getMethod(RmiCallableTest.class, "testRemote", signature),
+        Matchers.sameInstance(method));
+  }
+
+  @Test
+  public void test18_Invoke() throws Exception {
+    RmiCallableTest callable = new RmiCallableTest();
+    Method method = RmiCallableTest.class.getMethod("jsonArguments", int.class, String.class,
+        MyEnum.class, double[].class, byte[].class);
+
+    Object[] args = new Object[] {1, "a", MyEnum.FOO, new double[0], new byte[0]};
+    assertThat(RmiCallable$companion.invoke(method, callable, args),
+        Matchers.equalTo("1aFOO[][]"));
+
+    // arguments of primitive parameters are widened as Method.invoke does
+    args[0] = (short) 1;
+    assertThat(RmiCallable$companion.invoke(method, callable, args),
+        Matchers.equalTo("1aFOO[][]"));
+
+    // arguments are checked as Method.invoke does
+    args[0] = "1";
+    try {
+      RmiCallable$companion.invoke(method, callable, args);
+      throw new AssertionError();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    // exceptions thrown by the method are wrapped
+    try {
+      RmiCallable$companion.invoke(RmiCallableTest.class.getMethod("throwException"), callable,
+          null);
+      throw new AssertionError();
+    } catch (InvocationTargetException e) {
+      assertThat(e.getCause(), Matchers.instanceOf(RuntimeException.class));
+    }
+  }
+
+  @Test
+  public void test19_ExceptionSummary() throws Exception {
+    RmiCallable callable = new RmiCallableTest() {};
+    JsonValue response = new Request().withMethodName("throwNested")
+        .withMethodSignature(new String[] {"int"})
+        .withMethodArguments(new Object[] {RmiCallable$companion.STACK_TRACE_DEPTH * 2})
+        .call(callable);
+    assertThat(response, hasError(RmiError.E_INVOKE));
+
+    // the summary has the exception and its cause, with trimmed stack traces
+    JsonArray summary = ((JsonObject) response).getArray(RMI_EXCEPTION);
+    assertThat(summary.length(), Matchers.is(2));
+    assertThat(summary.getArray(0).getString(0), Matchers.is("java.lang.IllegalStateException"));
+    assertThat(summary.getArray(0).getString(1), Matchers.is("outer"));
+    assertThat(summary.getArray(0).getArray(2).length(),
+        Matchers.is(RmiCallable$companion.STACK_TRACE_DEPTH));
+    assertThat(summary.getArray(0).getArray(2).getArray(0).getString(1),
+        Matchers.is("throwNested"));
+    assertThat(summary.getArray(1).getString(0),
+        Matchers.is("java.lang.IllegalArgumentException"));
+    assertThat(summary.getArray(1).getString(1), Matchers.is("inner"));
+
+    // the serialized exception is transferred on request, and only once
+    String transferId = ((JsonObject) response).getString(RMI_TRANSFER_ID);
+    int length = (int) ((JsonObject) response).getNumber(RMI_TRANSFER_LENGTH);
+    assertThat(length, Matchers.lessThanOrEqualTo(RmiStagingArea.CHUNK_SIZE));
+
+    JsonValue chunk = fetch(callable, transferId, 0);
+    byte[] data = Base64.getDecoder().decode(((JsonObject) chunk).getString(RMI_RESPONSE_DATA));
+    Object exception = new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+    assertThat(exception, Matchers.instanceOf(IllegalStateException.class));
+    assertThat(((Throwable) exception).getStackTrace().length,
+        Matchers.greaterThan(RmiCallable$companion.STACK_TRACE_DEPTH * 2));
+
+    assertThat(fetch(callable, transferId, 0), hasError(RmiError.E_TRANSFER_NOT_EXIST));
+  }
+
+  private static Object[] nested(long depth) {
+    Object[] value = new Object[0];
+    for (long i = 0; i < depth; i++) {
+      value = new Object[] {value};
+    }
+    return value;
+  }
+
+  @Test
+  public void test20_InputRejected_Depth() {
+    JsonValue response = new Request().withMethodName("methodWithArguments")
+        .withMethodSignature(new String[] {"java.io.Serializable"})
+        .withMethodArguments(new Object[] {nested(RmiInputLimits.MAX_DEPTH)}).call();
+    assertThat(response, hasError(RmiError.E_INPUT_REJECTED));
+
+    response = new Request().withMethodName("methodWithArguments")
+        .withMethodSignature(new String[] {"java.io.Serializable"})
+        .withMethodArguments(new Object[] {nested(RmiInputLimits.MAX_DEPTH / 2)}).call();
+    assertThat(response, Matchers.not(hasMarker()));
+  }
+
+  @Test
+  public void test20_InputRejected_DepthCompact() {
+    JsonValue response = new Request().withMethodName("methodWithArguments")
+        .withMethodSignature(new String[] {"java.io.Serializable"})
+        .withCodec(CompactRmiCodec.ID)
+        .withMethodArguments(new Object[] {nested(RmiInputLimits.MAX_DEPTH)}).call();
+    assertThat(response, hasError(RmiError.E_INPUT_REJECTED));
+  }
+
+  @Test
+  public void test20_InputRejected_Upload() {
+    JsonObject obj = Json.createObject();
+    obj.put(RMI_UPLOAD_ID, "upload");
+    obj.put(RMI_TRANSFER_LENGTH, RmiInputLimits.MAX_BYTES + 1);
+    obj.put(RMI_TRANSFER_OFFSET, 0);
+    obj.put(RMI_METHOD_ARGUMENTS, "");
+    assertThat(new RmiCallableTest() {}.$call(obj), hasError(RmiError.E_INPUT_REJECTED));
+  }
+
+  @Test
+  public void test20_AllowListPatterns() {
+    assertThat(RmiInputLimits.matches("java.util.List", "java.util.List"), Matchers.is(true));
+    assertThat(RmiInputLimits.matches("java.util.*", "java.util.List"), Matchers.is(true));
+    assertThat(RmiInputLimits.matches("java.util.*", "java.util.concurrent.Future"),
+        Matchers.is(false));
+    assertThat(RmiInputLimits.matches("java.util.**", "java.util.concurrent.Future"),
+        Matchers.is(true));
+    assertThat(RmiInputLimits.matches("java.util.Li*", "java.util.List"), Matchers.is(true));
+    assertThat(RmiInputLimits.matches("java.util.Li*", "java.util.Map"), Matchers.is(false));
+  }
+
+  public interface JsonLongMethod {
+    void method(long arg);
+  }
+
+  private static Method getJsonLongMethod() {
+    try {
+      return JsonLongMethod.class.getMethod("method", long.class);
+    } catch (NoSuchMethodException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   private static ClassLoader CUSTOM_CLASSLOADER = new ClassLoader() {
     @Override
     protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
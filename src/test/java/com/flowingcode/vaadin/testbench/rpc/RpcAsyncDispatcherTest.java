@@ -0,0 +1,92 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+/** Dispatches asynchronous calls through a driver that answers every call with the same result. */
+public class RpcAsyncDispatcherTest implements HasRpcSupport {
+
+  public interface Callables {
+    CompletableFuture<String> echo(String value);
+  }
+
+  private volatile boolean broken;
+
+  private final WebDriver driver = (WebDriver) Proxy.newProxyInstance(
+      WebDriver.class.getClassLoader(), new Class<?>[] {WebDriver.class, JavascriptExecutor.class},
+      (proxy, method, args) -> {
+        switch (method.getName()) {
+          case "executeAsyncScript":
+            if (broken) {
+              throw new AssertionError("broken driver");
+            }
+            List<?> batch = (List<?>) ((Object[]) args[1])[2];
+            List<Object> results = new ArrayList<>();
+            batch.forEach(call -> results.add(Collections.singletonMap("result", "ok")));
+            return Collections.singletonMap("results", results);
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          case "equals":
+            return proxy == args[0];
+          default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+      });
+
+  @Override
+  public WebDriver getDriver() {
+    return driver;
+  }
+
+  @Test(timeout = 10000)
+  public void testAllOf() {
+    Callables $server = createAsyncCallableProxy(Callables.class);
+    CompletableFuture<String> a = $server.echo("a");
+    CompletableFuture<String> b = $server.echo("b");
+    CompletableFuture.allOf(a, b).join();
+    assertEquals("ok", a.join());
+    assertEquals("ok", b.join());
+  }
+
+  @Test(timeout = 10000)
+  public void testDispatcherFailure() throws Exception {
+    // an error in the dispatcher thread fails the pending calls, and later calls still complete
+    Callables $server = createAsyncCallableProxy(Callables.class);
+    broken = true;
+    CompletableFuture<String> failed = $server.echo("a");
+    assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+
+    broken = false;
+    assertEquals("ok", $server.echo("b").get(5, TimeUnit.SECONDS));
+  }
+
+}
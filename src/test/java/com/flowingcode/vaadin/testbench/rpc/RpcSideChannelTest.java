@@ -0,0 +1,91 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import org.junit.Test;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+/** Checks that side channels do not prevent their driver or test from being collected. */
+public class RpcSideChannelTest {
+
+  private static WebDriver createDriver() {
+    return (WebDriver) Proxy.newProxyInstance(WebDriver.class.getClassLoader(),
+        new Class<?>[] {WebDriver.class, JavascriptExecutor.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  @Test
+  public void testPooledChannel() {
+    WebDriver driver = createDriver();
+    RpcSideChannel channel = RpcSideChannel.acquire(driver, null, SideChannelMode.DIRECT, null);
+    assertSame(channel, RpcSideChannel.acquire(driver, null, SideChannelMode.DIRECT, null));
+    assertSame(driver, channel.driver());
+  }
+
+  @Test(timeout = 10000)
+  public void testDriverNotRetained() throws InterruptedException {
+    WebDriver driver = createDriver();
+    RpcSideChannel channel = RpcSideChannel.acquire(driver, null, SideChannelMode.DIRECT, null);
+    WeakReference<WebDriver> reference = new WeakReference<>(driver);
+    driver = null;
+
+    while (reference.get() != null) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(channel.driverIfAvailable());
+  }
+
+  @Test(timeout = 10000)
+  public void testDictionaryNotRetained() throws InterruptedException {
+    // the dictionaries do not prevent the test from being collected
+    HasRpcSupport rpc = new HasRpcSupport() {
+      @Override
+      public WebDriver getDriver() {
+        return null;
+      }
+    };
+    RpcSideChannel.Lease lease = new RpcSideChannel.Lease(rpc, "", SideChannelMode.IFRAME, null);
+    assertSame(lease.dictionary, RmiClassDictionary.getInstance(rpc, lease));
+    RmiClassDictionary.getInstance(rpc, null);
+    WeakReference<HasRpcSupport> reference = new WeakReference<>(rpc);
+    rpc = null;
+    lease = null;
+
+    while (reference.get() != null) {
+      System.gc();
+      Thread.sleep(10);
+    }
+  }
+
+}
@@ -0,0 +1,39 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc.integration;
+
+import com.flowingcode.vaadin.testbench.rpc.JsonArrayList;
+import java.util.concurrent.CompletableFuture;
+
+public interface AsyncIntegrationViewCallables {
+
+  CompletableFuture<Void> testCallableFailure();
+
+  CompletableFuture<Void> testCallableSuccess();
+
+  CompletableFuture<Boolean> negate(boolean arg);
+
+  CompletableFuture<String> concatWorld(String arg);
+
+  CompletableFuture<Integer> return42IntegerPrimitive();
+
+  CompletableFuture<JsonArrayList<String>> getStrings();
+
+}
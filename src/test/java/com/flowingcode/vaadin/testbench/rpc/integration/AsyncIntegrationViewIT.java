@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc.integration;
+
+import static com.flowingcode.vaadin.testbench.rpc.integration.IntegrationViewConstants.HELLO;
+import static com.flowingcode.vaadin.testbench.rpc.integration.IntegrationViewConstants.HELLO_WORLD;
+import static com.flowingcode.vaadin.testbench.rpc.integration.IntegrationViewConstants.WORLD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import com.flowingcode.vaadin.testbench.rpc.AbstractViewTest;
+import com.flowingcode.vaadin.testbench.rpc.HasRpcSupport;
+import com.flowingcode.vaadin.testbench.rpc.RpcException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AsyncIntegrationViewIT extends AbstractViewTest implements HasRpcSupport {
+
+  public AsyncIntegrationViewIT() {
+    super(IntegrationView.ROUTE);
+  }
+
+  AsyncIntegrationViewCallables $server =
+      createAsyncCallableProxy(AsyncIntegrationViewCallables.class);
+
+  @Test
+  public void testCallableSuccess() {
+    assertNull($server.testCallableSuccess().join());
+  }
+
+  @Test
+  public void testCallableFailure() {
+    CompletableFuture<Void> future = $server.testCallableFailure();
+    ExecutionException e = assertThrows(ExecutionException.class, () -> future.get());
+    assertTrue(e.getCause() instanceof RpcException);
+  }
+
+  @Test
+  public void testResults() throws Exception {
+    CompletableFuture<Boolean> negate = $server.negate(true);
+    CompletableFuture<String> concat = $server.concatWorld(HELLO);
+    CompletableFuture<Integer> answer = $server.return42IntegerPrimitive();
+
+    // futures complete in the same order the calls were made
+    assertEquals(42, (int) answer.get());
+    assertTrue(negate.isDone());
+    assertTrue(concat.isDone());
+    assertFalse(negate.get());
+    assertEquals(HELLO_WORLD, concat.get());
+  }
+
+  @Test
+  public void testResultsOutOfOrder() throws Exception {
+    CompletableFuture<Boolean> negate = $server.negate(false);
+    CompletableFuture<String> concat = $server.concatWorld(HELLO);
+
+    assertTrue(negate.get());
+    assertEquals(HELLO_WORLD, concat.get());
+  }
+
+  @Test
+  public void testAllOf() {
+    CompletableFuture<Boolean> negate = $server.negate(true);
+    CompletableFuture<String> concat = $server.concatWorld(HELLO);
+
+    CompletableFuture.allOf(negate, concat).join();
+    assertFalse(negate.join());
+    assertEquals(HELLO_WORLD, concat.join());
+  }
+
+  @Test
+  public void testDependentStage() throws Exception {
+    CompletableFuture<String> future = $server.concatWorld(HELLO).thenApply(s -> s + "!");
+    assertEquals(HELLO_WORLD + "!", future.get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testList() {
+    assertEquals(Arrays.asList(HELLO, WORLD), $server.getStrings().join().asList());
+  }
+
+}
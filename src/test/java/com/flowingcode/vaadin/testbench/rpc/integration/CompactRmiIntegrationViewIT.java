@@ -0,0 +1,79 @@
+package com.flowingcode.vaadin.testbench.rpc.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import com.flowingcode.vaadin.testbench.rpc.AbstractViewTest;
+import com.flowingcode.vaadin.testbench.rpc.CompactRmiCodec;
+import com.flowingcode.vaadin.testbench.rpc.HasRpcSupport;
+import com.flowingcode.vaadin.testbench.rpc.UseRmiCodec;
+import com.flowingcode.vaadin.testbench.rpc.integration.RmiIntegrationViewCallables.ICounter;
+import com.flowingcode.vaadin.testbench.rpc.integration.RmiIntegrationViewCallables.IListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CompactRmiIntegrationViewIT extends AbstractViewTest implements HasRpcSupport {
+
+  @UseRmiCodec(CompactRmiCodec.class)
+  public interface CompactCallables extends RmiIntegrationViewCallables {
+  }
+
+  public CompactRmiIntegrationViewIT() {
+    super(RmiIntegrationView.ROUTE);
+  }
+
+  CompactCallables $server = createCallableProxy(CompactCallables.class);
+
+  @Test
+  public void test01_callable() {
+    $server.testCallableSuccess();
+    assertEquals(42L, $server.testLong(42L));
+  }
+
+  @Test
+  public void test02_serializable() {
+    // serializable objects that are not supported by the codec use Java serialization
+    assertEquals(Pair.of(1, 2), $server.test(Pair.of(1, 2)));
+    assertEquals(new ArrayList<>(Arrays.asList("a", "b")),
+        $server.test(new ArrayList<>(Arrays.asList("a", "b"))));
+  }
+
+  @Test
+  public void test03_remoteStub() {
+    // stubs use the codec of the proxy that returned them
+    ICounter counter = $server.getCounter("test03_remoteStub");
+    counter.setCount(42L);
+    assertEquals(42L, counter.getCount());
+    assertTrue($server.same(counter, $server.getCounter("test03_remoteStub")));
+  }
+
+  @Test
+  public void test04_wrapped() {
+    ICounter wrapped = $server.createWrappedCounter("test04_wrapped").getObject();
+    wrapped.setCount(42L);
+    assertEquals(42L, wrapped.getCount());
+  }
+
+  @Test
+  public void test05_largeArgument() {
+    byte[] array = new byte[5 * 1024 * 1024 + 1];
+    assertTrue($server.same(array, array));
+  }
+
+  @Test
+  public void test06_events() {
+    List<String> received = new ArrayList<>();
+    IListener listener = received::add;
+    $server.addListener(listener);
+    $server.fireEvent("a");
+    assertEquals(1, $server.drainEvents());
+    assertEquals(Arrays.asList("a"), received);
+    assertTrue($server.removeListener(listener));
+  }
+
+}
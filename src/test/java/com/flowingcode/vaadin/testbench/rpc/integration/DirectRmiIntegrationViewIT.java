@@ -0,0 +1,80 @@
+package com.flowingcode.vaadin.testbench.rpc.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import com.flowingcode.vaadin.testbench.rpc.AbstractViewTest;
+import com.flowingcode.vaadin.testbench.rpc.HasRpcSupport;
+import com.flowingcode.vaadin.testbench.rpc.RpcException;
+import com.flowingcode.vaadin.testbench.rpc.integration.RmiIntegrationViewCallables.ICounter;
+import java.util.List;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DirectRmiIntegrationViewIT extends AbstractViewTest implements HasRpcSupport {
+
+  public DirectRmiIntegrationViewIT() {
+    super(RmiIntegrationView.ROUTE);
+  }
+
+  RmiIntegrationViewCallables $server =
+      createDirectCallableProxy(RmiIntegrationViewCallables.class);
+
+  @Test
+  public void test01_callable() {
+    $server.testCallableSuccess();
+    assertEquals(42L, $server.testLong(42L));
+  }
+
+  @Test
+  public void test02_failure() {
+    assertThrows(RpcException.class, () -> $server.testCallableFailure());
+  }
+
+  @Test
+  public void test03_remoteStub() {
+    // remote stubs are also called directly
+    ICounter counter = $server.getCounter("test03_remoteStub");
+    counter.setCount(42L);
+    assertEquals(42L, counter.getCount());
+  }
+
+  @Test
+  public void test04_reload() {
+    // a new token is read after the main window is reloaded
+    $server.testCallableSuccess();
+    getDriver().navigate().refresh();
+    $server.testCallableSuccess();
+  }
+
+  @Test
+  public void test05_batch() {
+    List<Object> results = batch(() -> {
+      $server.testLong(1L);
+      $server.testLong(2L);
+    });
+    assertEquals(2, results.size());
+    assertEquals(2L, results.get(1));
+  }
+
+  @Test
+  public void test06_largeResult() {
+    int size = 5 * 1024 * 1024 + 1;
+    assertEquals(size, $server.createLargeArray(size).length);
+  }
+
+  @Test
+  public void test07_largeArgument() {
+    byte[] array = new byte[5 * 1024 * 1024 + 1];
+    assertTrue($server.same(array, array));
+  }
+
+  @Test
+  public void test08_notRmi() {
+    assertThrows(IllegalArgumentException.class,
+        () -> createDirectCallableProxy(IntegrationViewCallables.class));
+  }
+
+}
@@ -0,0 +1,85 @@
+package com.flowingcode.vaadin.testbench.rpc.integration;
+
+import static org.junit.Assert.assertEquals;
+import com.flowingcode.vaadin.testbench.rpc.AbstractViewTest;
+import com.flowingcode.vaadin.testbench.rpc.HasRpcSupport;
+import com.flowingcode.vaadin.testbench.rpc.SideChannelMode;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.openqa.selenium.By;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FrameIntegrationViewIT extends AbstractViewTest implements HasRpcSupport {
+
+  public FrameIntegrationViewIT() {
+    super(OtherView.ROUTE);
+  }
+
+  IntegrationViewCallables $server = createCallableProxy(IntegrationViewCallables.class,
+      getURL(IntegrationView.ROUTE), SideChannelMode.IFRAME);
+
+  private int countFrames() {
+    return getDriver().findElements(By.tagName("iframe")).size();
+  }
+
+  @Test
+  public void test01_callable() {
+    $server.testCallableSuccess();
+    assertEquals(1, getDriver().getWindowHandles().size());
+    assertEquals(1, countFrames());
+  }
+
+  @Test
+  public void test02_reuse() {
+    $server.testCallableSuccess();
+    assertEquals(IntegrationViewConstants.HELLO_WORLD,
+        $server.concatWorld(IntegrationViewConstants.HELLO));
+    assertEquals(1, countFrames());
+  }
+
+  @Test
+  public void test03_close() {
+    $server.testCallableSuccess();
+    $server.closeSideChannel();
+    assertEquals(0, countFrames());
+  }
+
+  @Test
+  public void test04_reopen() {
+    $server.testCallableSuccess();
+    $server.closeSideChannel();
+    $server.testCallableSuccess();
+    assertEquals(1, countFrames());
+  }
+
+  @Test
+  public void test05_reload() {
+    // the frame is opened again after the main window is reloaded
+    $server.testCallableSuccess();
+    getDriver().navigate().refresh();
+    $server.testCallableSuccess();
+    assertEquals(1, countFrames());
+  }
+
+  @Test
+  public void test06_open() {
+    // the frame is opened without waiting, and the first call waits until it's ready
+    $server.openSideChannel();
+    assertEquals(1, countFrames());
+    $server.testCallableSuccess();
+    assertEquals(1, countFrames());
+  }
+
+  @Test
+  public void test07_eager() {
+    // the driver is available, so the frame is opened when the proxy is created
+    IntegrationViewCallables other = createCallableProxy(IntegrationViewCallables.class,
+        getURL(IntegrationView.ROUTE) + "?eager", SideChannelMode.IFRAME);
+    assertEquals(1, countFrames());
+    other.testCallableSuccess();
+    other.closeSideChannel();
+    assertEquals(0, countFrames());
+  }
+
+}
@@ -0,0 +1,37 @@
+package com.flowingcode.vaadin.testbench.rpc.integration;
+
+import static org.junit.Assert.assertEquals;
+import com.flowingcode.vaadin.testbench.rpc.AbstractViewTest;
+import com.flowingcode.vaadin.testbench.rpc.HasRpcSupport;
+import com.flowingcode.vaadin.testbench.rpc.SideChannelMode;
+import com.flowingcode.vaadin.testbench.rpc.integration.RmiIntegrationViewCallables.ICounter;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FrameRmiIntegrationViewIT extends AbstractViewTest implements HasRpcSupport {
+
+  public FrameRmiIntegrationViewIT() {
+    super(OtherView.ROUTE);
+  }
+
+  RmiIntegrationViewCallables $server = createCallableProxy(RmiIntegrationViewCallables.class,
+      getURL(RmiIntegrationView.ROUTE), SideChannelMode.IFRAME);
+
+  @Test
+  public void test01_callable() {
+    $server.testCallableSuccess();
+    assertEquals(1, getDriver().getWindowHandles().size());
+  }
+
+  @Test
+  public void test02_remote() {
+    // remote stubs are dispatched through the frame
+    ICounter counter = $server.getCounter("test02_remote");
+    counter.setCount(42L);
+    assertEquals(42L, counter.getCount());
+    assertEquals(1, getDriver().getWindowHandles().size());
+  }
+
+}
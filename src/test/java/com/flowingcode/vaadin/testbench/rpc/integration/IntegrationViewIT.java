@@ -39,6 +39,7 @@ import elemental.json.JsonObject;
 import elemental.json.JsonString;
 import elemental.json.JsonType;
 import elemental.json.JsonValue;
+import java.util.Arrays;
 import java.util.List;
 import org.hamcrest.Matchers;
 import org.junit.FixMethodOrder;
@@ -309,6 +310,17 @@ public class IntegrationViewIT extends AbstractViewTest implements HasRpcSupport
     assertEquals(HELLO, $server.readJsonObject(obj, "key").asString());
   }
 
+  @Test
+  public void test13_readNestedJsonObject() {
+    JsonObject inner = Json.createObject();
+    inner.put("key", HELLO);
+    JsonArray array = Json.createArray();
+    array.set(0, inner);
+    JsonObject obj = Json.createObject();
+    obj.put("array", array);
+    assertTrue(array.jsEquals($server.readJsonObject(obj, "array")));
+  }
+
   @Test
   public void test13_returnJsonObject() {
     JsonObject obj = Json.createObject();
@@ -370,4 +382,24 @@ public class IntegrationViewIT extends AbstractViewTest implements HasRpcSupport
     }
   }
 
+  @Test
+  public void test15_batch() {
+    List<Object> results = batch(() -> {
+      $server.testCallableSuccess();
+      $server.negate(true);
+      $server.concatWorld(HELLO);
+      $server.return42Integer();
+    });
+    assertEquals(Arrays.asList(null, false, HELLO_WORLD, 42), results);
+  }
+
+  @Test
+  public void test15_batchFailure() {
+    // the batch fails if any of its calls fails
+    assertThrows(RpcException.class, () -> batch(() -> {
+      $server.testCallableSuccess();
+      $server.testCallableFailure();
+    }));
+  }
+
 }
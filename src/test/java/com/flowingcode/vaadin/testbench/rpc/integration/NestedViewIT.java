@@ -0,0 +1,49 @@
+/*-
+ * #%L
+ * RPC for Vaadin TestBench
+ * %%
+ * Copyright (C) 2021 - 2025 Flowing Code
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.flowingcode.vaadin.testbench.rpc.integration;
+
+import static org.junit.Assert.assertEquals;
+import com.flowingcode.vaadin.testbench.rpc.AbstractViewTest;
+import com.flowingcode.vaadin.testbench.rpc.HasRpcSupport;
+import org.junit.Test;
+
+public class NestedViewIT extends AbstractViewTest implements HasRpcSupport {
+
+  public NestedViewIT() {
+    super(NestedView.ROUTE);
+  }
+
+  // the view is nested within two router layouts
+  NestedViewCallables $server = createCallableProxy(NestedViewCallables.class);
+
+  @Test
+  public void testNestedView() {
+    assertEquals(NestedView.class.getName(), $server.getClassName());
+  }
+
+  @Test
+  public void testNestedViewAfterReload() {
+    $server.getClassName();
+    getDriver().navigate().refresh();
+    getCommandExecutor().waitForVaadin();
+    assertEquals(NestedView.class.getName(), $server.getClassName());
+  }
+
+}
@@ -29,7 +29,10 @@ import elemental.json.Json;
 import elemental.json.JsonObject;
 import elemental.json.JsonValue;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -155,4 +158,42 @@ public class RmiIntegrationView extends Div implements RmiIntegrationViewCallabl
     obj.put(key, value);
     return obj;
   }
+
+  @Override
+  public byte[] createLargeArray(int size) {
+    byte[] array = new byte[size];
+    for (int i = 0; i < size; i++) {
+      array[i] = (byte) i;
+    }
+    return array;
+  }
+
+  @Override
+  public List<String> createList(String[] values) {
+    return Arrays.asList(values);
+  }
+
+  @Override
+  public Map<String, Integer> createMap(String key, int value) {
+    Map<String, Integer> map = new HashMap<>();
+    map.put(key, value);
+    return map;
+  }
+
+  private final List<IListener> listeners = new ArrayList<>();
+
+  @Override
+  public void addListener(IListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public boolean removeListener(IListener listener) {
+    return listeners.remove(listener);
+  }
+
+  @Override
+  public void fireEvent(String value) {
+    listeners.forEach(listener -> listener.onEvent(value));
+  }
 }
@@ -20,15 +20,19 @@
 package com.flowingcode.vaadin.testbench.rpc.integration;
 
 import com.flowingcode.vaadin.testbench.rpc.RmiCallable;
+import com.flowingcode.vaadin.testbench.rpc.RmiEventSupport;
 import com.flowingcode.vaadin.testbench.rpc.RmiRemote;
 import com.flowingcode.vaadin.testbench.rpc.SideChannelSupport;
 import com.vaadin.flow.component.Component;
 import elemental.json.JsonObject;
 import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
-public interface RmiIntegrationViewCallables extends RmiCallable, SideChannelSupport {
+public interface RmiIntegrationViewCallables
+    extends RmiCallable, SideChannelSupport, RmiEventSupport {
 
   void testCallableSuccess();
 
@@ -84,4 +88,20 @@ public interface RmiIntegrationViewCallables extends RmiCallable, SideChannelSup
 
   JsonObject returnJsonObject(String key, String value);
 
+  byte[] createLargeArray(int size);
+
+  List<String> createList(String[] values);
+
+  Map<String, Integer> createMap(String key, int value);
+
+  interface IListener extends RmiRemote {
+    void onEvent(String value);
+  }
+
+  void addListener(IListener listener);
+
+  boolean removeListener(IListener listener);
+
+  void fireEvent(String value);
+
 }
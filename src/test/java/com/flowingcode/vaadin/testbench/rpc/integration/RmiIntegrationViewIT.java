@@ -23,12 +23,18 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
 import com.flowingcode.vaadin.testbench.rpc.AbstractViewTest;
 import com.flowingcode.vaadin.testbench.rpc.HasRpcSupport;
+import com.flowingcode.vaadin.testbench.rpc.RmiRemoteException;
 import com.flowingcode.vaadin.testbench.rpc.RpcException;
 import com.flowingcode.vaadin.testbench.rpc.integration.RmiIntegrationViewCallables.ICounter;
+import com.flowingcode.vaadin.testbench.rpc.integration.RmiIntegrationViewCallables.IListener;
 import com.flowingcode.vaadin.testbench.rpc.integration.RmiIntegrationViewCallables.Identity;
 import com.flowingcode.vaadin.testbench.rpc.integration.RmiIntegrationViewCallables.MyRemoteObject;
 import elemental.json.JsonObject;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Assert;
 import org.junit.FixMethodOrder;
@@ -74,6 +80,11 @@ public class RmiIntegrationViewIT extends AbstractViewTest implements HasRpcSupp
     assertThrows(RpcException.class, throwing(() -> $server.testCallableFailure()));
     assertEquals("testCallableFailure() RPC call failed: " + E_INVOKE_MESSAGE,
         thrownException.getMessage());
+
+    // the server-side exception is summarized, and transferred on request
+    RmiRemoteException cause = (RmiRemoteException) thrownException.getCause();
+    assertEquals(RuntimeException.class.getName(), cause.getRemoteClassName());
+    assertEquals(RuntimeException.class, cause.getRemoteException().getClass());
   }
 
   @Test
@@ -229,4 +240,56 @@ public class RmiIntegrationViewIT extends AbstractViewTest implements HasRpcSupp
     wrapped.setCount(42L);
     Assert.assertEquals(42L, wrapped.getCount());
   }
+
+  @Test
+  public void test14_largeResult() {
+    // the result is transferred in several chunks
+    int size = 5 * 1024 * 1024 + 1;
+    byte[] array = $server.createLargeArray(size);
+    assertEquals(size, array.length);
+    for (int i = 0; i < size; i++) {
+      assertEquals((byte) i, array[i]);
+    }
+  }
+
+  @Test
+  public void test14_largeArgument() {
+    // the argument is uploaded in several chunks
+    byte[] array = new byte[5 * 1024 * 1024 + 1];
+    Assert.assertTrue($server.same(array, array));
+  }
+
+  @Test
+  public void test15_events() {
+    List<String> received = new ArrayList<>();
+    IListener listener = received::add;
+    $server.addListener(listener);
+
+    // the events are buffered until they are drained
+    $server.fireEvent("a");
+    $server.fireEvent("b");
+    assertEquals(0, received.size());
+    assertEquals(2, $server.drainEvents());
+    assertEquals(Arrays.asList("a", "b"), received);
+    assertEquals(0, $server.drainEvents());
+
+    // the listener is identified by the same proxy on the server
+    Assert.assertTrue($server.removeListener(listener));
+    $server.fireEvent("c");
+    assertEquals(0, $server.drainEvents());
+
+    // the events of unexported listeners are discarded
+    $server.addListener(listener);
+    unexportListener(listener);
+    $server.fireEvent("d");
+    assertEquals(0, $server.drainEvents());
+    assertEquals(Arrays.asList("a", "b"), received);
+  }
+
+  @Test
+  public void test16_jsonCollections() {
+    // collections and maps of JSON types are returned as JSON
+    assertEquals(Arrays.asList("a", "b"), $server.createList(new String[] {"a", "b"}));
+    assertEquals(Collections.singletonMap("a", 1), $server.createMap("a", 1));
+  }
 }
@@ -0,0 +1,61 @@
+package com.flowingcode.vaadin.testbench.rpc.integration;
+
+import static org.junit.Assert.assertEquals;
+import com.flowingcode.vaadin.testbench.rpc.AbstractViewTest;
+import com.flowingcode.vaadin.testbench.rpc.HasRpcSupport;
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+import org.openqa.selenium.chrome.ChromeDriver;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SessionIntegrationViewIT extends AbstractViewTest implements HasRpcSupport {
+
+  public SessionIntegrationViewIT() {
+    super(OtherView.ROUTE);
+  }
+
+  IntegrationViewCallables $server =
+      createCallableProxy(IntegrationViewCallables.class, getURL(IntegrationView.ROUTE),
+          ChromeDriver::new);
+
+  @Override
+  @After
+  public void after() {
+    closeSideChannels();
+    super.after();
+  }
+
+  @Test
+  public void test01_callable() {
+    $server.testCallableSuccess();
+    // the side channel does not open windows in the main driver
+    assertEquals(1, getDriver().getWindowHandles().size());
+  }
+
+  @Test
+  public void test02_reuse() {
+    $server.testCallableSuccess();
+    assertEquals(IntegrationViewConstants.HELLO_WORLD,
+        $server.concatWorld(IntegrationViewConstants.HELLO));
+  }
+
+  @Test
+  public void test03_concurrent() {
+    // side channel calls run on another thread while the main driver is in use
+    CompletableFuture<String> result = CompletableFuture
+        .supplyAsync(() -> $server.concatWorld(IntegrationViewConstants.HELLO));
+    getDriver().navigate().refresh();
+    assertEquals(IntegrationViewConstants.HELLO_WORLD, result.join());
+  }
+
+  @Test
+  public void test04_reopen() {
+    $server.testCallableSuccess();
+    $server.closeSideChannel();
+    $server.testCallableSuccess();
+  }
+
+}
@@ -43,4 +43,61 @@ public class SideIntegrationViewIT extends AbstractViewTest implements HasRpcSup
     $server.testCallableSuccess();
     assertEquals(2, getDriver().getWindowHandles().size());
   }
+
+  @Test
+  public void test05_shared() {
+    // proxies with the same URL share the side channel
+    IntegrationViewCallables other =
+        createCallableProxy(IntegrationViewCallables.class, getURL(IntegrationView.ROUTE));
+    $server.testCallableSuccess();
+    other.testCallableSuccess();
+    assertEquals(2, getDriver().getWindowHandles().size());
+
+    // the side channel is closed when it's released by both proxies
+    $server.closeSideChannel();
+    assertEquals(2, getDriver().getWindowHandles().size());
+    other.closeSideChannel();
+    assertEquals(1, getDriver().getWindowHandles().size());
+  }
+
+  @Test
+  public void test06_closeAll() {
+    $server.testCallableSuccess();
+    closeSideChannels();
+    assertEquals(1, getDriver().getWindowHandles().size());
+  }
+
+  @Test
+  public void test07_open() {
+    // the window is opened without waiting, and the first call waits until it's ready
+    $server.openSideChannel();
+    $server.testCallableSuccess();
+    assertEquals(2, getDriver().getWindowHandles().size());
+  }
+
+  @Test
+  public void test08_closeBeforeCall() {
+    $server.openSideChannel();
+    $server.closeSideChannel();
+    assertEquals(1, getDriver().getWindowHandles().size());
+  }
+
+  @Test
+  public void test09_reopenAfterCloseAll() {
+    IntegrationViewCallables other =
+        createCallableProxy(IntegrationViewCallables.class, getURL(IntegrationView.ROUTE));
+    $server.testCallableSuccess();
+    other.testCallableSuccess();
+    closeSideChannels();
+
+    // both proxies acquire a new pooled channel, instead of the one that was closed
+    $server.testCallableSuccess();
+    other.testCallableSuccess();
+    assertEquals(2, getDriver().getWindowHandles().size());
+
+    $server.closeSideChannel();
+    assertEquals(2, getDriver().getWindowHandles().size());
+    other.closeSideChannel();
+    assertEquals(1, getDriver().getWindowHandles().size());
+  }
 }
\ No newline at end of file
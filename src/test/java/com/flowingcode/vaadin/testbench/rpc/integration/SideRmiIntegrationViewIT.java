@@ -3,6 +3,7 @@ package com.flowingcode.vaadin.testbench.rpc.integration;
 import static org.junit.Assert.assertEquals;
 import com.flowingcode.vaadin.testbench.rpc.AbstractViewTest;
 import com.flowingcode.vaadin.testbench.rpc.HasRpcSupport;
+import com.flowingcode.vaadin.testbench.rpc.integration.RmiIntegrationViewCallables.ICounter;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
@@ -44,4 +45,13 @@ public class SideRmiIntegrationViewIT extends AbstractViewTest implements HasRpc
     assertEquals(2, getDriver().getWindowHandles().size());
   }
 
+  @Test
+  public void test05_remoteStub() {
+    // remote stubs share the side channel of the proxy that created them
+    ICounter counter = $server.getCounter("test05_remoteStub");
+    counter.setCount(42L);
+    assertEquals(42L, counter.getCount());
+    assertEquals(2, getDriver().getWindowHandles().size());
+  }
+
 }
\ No newline at end of file
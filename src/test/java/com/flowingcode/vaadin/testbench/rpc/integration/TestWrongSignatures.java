@@ -24,6 +24,9 @@ import com.flowingcode.vaadin.testbench.rpc.IllegalRpcSignatureException;
 import com.flowingcode.vaadin.testbench.rpc.RmiRemote;
 import com.flowingcode.vaadin.testbench.rpc.RmiCallable;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import org.junit.Test;
 import org.openqa.selenium.WebDriver;
 
@@ -83,6 +86,18 @@ public class TestWrongSignatures implements HasRpcSupport {
     Object foo();
   }
 
+  interface GoodSignature_RmiReturnJsonCollections extends RmiCallable {
+    List<String> foo();
+
+    Map<String, Integer> bar();
+
+    Set<Long> baz();
+  }
+
+  interface WrongSignature_RmiReturnObjectList extends RmiCallable {
+    List<Object> foo();
+  }
+
   static class RemoteImpl implements RmiRemote {
   }
 
@@ -102,6 +117,23 @@ public class TestWrongSignatures implements HasRpcSupport {
     MyEnum foo();
   }
 
+  interface WrongSignature_SyncReturnFuture {
+    CompletableFuture<String> foo();
+  }
+
+  interface WrongSignature_AsyncReturnString {
+    String foo();
+  }
+
+  interface WrongSignature_AsyncReturnRawFuture {
+    @SuppressWarnings("rawtypes")
+    CompletableFuture foo();
+  }
+
+  interface WrongSignature_AsyncReturnFutureOfLong {
+    CompletableFuture<Long> foo();
+  }
+
   @Test
   public void testIntegrationViewCallables() {
     createCallableProxy(IntegrationViewCallables.class);
@@ -177,6 +209,16 @@ public class TestWrongSignatures implements HasRpcSupport {
     createCallableProxy(WrongSignature_RmiReturnObject.class);
   }
 
+  @Test
+  public void testRmiReturnJsonCollections_OK() {
+    createCallableProxy(GoodSignature_RmiReturnJsonCollections.class);
+  }
+
+  @Test(expected = IllegalRpcSignatureException.class)
+  public void testRmiReturnObjectList() {
+    createCallableProxy(WrongSignature_RmiReturnObjectList.class);
+  }
+
   @Test(expected = IllegalRpcSignatureException.class)
   public void testRmiRemoteImplArgument() {
     createCallableProxy(WrongSignature_RmiRemoteImplArgument.class);
@@ -187,6 +229,31 @@ public class TestWrongSignatures implements HasRpcSupport {
     createCallableProxy(WrongSignature_RmiReturnRemoteImpl.class);
   }
 
+  @Test
+  public void testAsyncIntegrationViewCallables() {
+    createAsyncCallableProxy(AsyncIntegrationViewCallables.class);
+  }
+
+  @Test(expected = IllegalRpcSignatureException.class)
+  public void testSyncReturnFuture() {
+    createCallableProxy(WrongSignature_SyncReturnFuture.class);
+  }
+
+  @Test(expected = IllegalRpcSignatureException.class)
+  public void testAsyncReturnString() {
+    createAsyncCallableProxy(WrongSignature_AsyncReturnString.class);
+  }
+
+  @Test(expected = IllegalRpcSignatureException.class)
+  public void testAsyncReturnRawFuture() {
+    createAsyncCallableProxy(WrongSignature_AsyncReturnRawFuture.class);
+  }
+
+  @Test(expected = IllegalRpcSignatureException.class)
+  public void testAsyncReturnFutureOfLong() {
+    createAsyncCallableProxy(WrongSignature_AsyncReturnFutureOfLong.class);
+  }
+
   @Override
   public WebDriver getDriver() {
     throw new UnsupportedOperationException();